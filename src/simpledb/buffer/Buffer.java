@@ -1,5 +1,7 @@
 package simpledb.buffer;
 
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
@@ -9,17 +11,36 @@ import simpledb.log.LogMgr;
  * such as the associated disk block,
  * the number of times the buffer has been pinned,
  * whether its contents have been modified,
- * and if so, the id and lsn of the modifying transaction.
+ * and if so, the ids of the modifying transactions
+ * and the lsn of the latest modification.
+ * Transactions that lock individual records can modify
+ * the same page concurrently, so a page may have
+ * several modifying transactions at once.
+ * <p>
+ * The last {@value #PAGE_LSN_SIZE} bytes of every block hold
+ * the page LSN, which is the LSN of the latest logged
+ * modification to the page. Since the page LSN is written
+ * to disk with the page, recovery can tell which logged
+ * modifications reached the disk before a crash.
  * @author Edward Sciore
  */
 public class Buffer {
+   /**
+    * The number of bytes at the end of each block
+    * that are reserved for the page LSN.
+    */
+   public static final int PAGE_LSN_SIZE = Integer.BYTES;
    private FileMgr fm;
    private LogMgr lm;
    private Page contents;
    private BlockId blk = null;
    private int pins = 0;
-   private int txnum = -1;
+   private Set<Integer> modifiers = new HashSet<>();
    private int lsn = -1;
+   private int recLSN = -1;
+   private boolean unlogged = false;
+   private boolean loading = false;
+   private ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
 
    public Buffer(FileMgr fm, LogMgr lm) {
       this.fm = fm;
@@ -31,6 +52,37 @@ public class Buffer {
       return contents;
    }
 
+   /**
+    * Latches the buffer in shared mode, waiting if
+    * another thread is modifying the page.
+    * Any number of threads may read the page at once.
+    */
+   public void sLatch() {
+      latch.readLock().lock();
+   }
+
+   /**
+    * Releases a shared latch on the buffer.
+    */
+   public void sUnlatch() {
+      latch.readLock().unlock();
+   }
+
+   /**
+    * Latches the buffer in exclusive mode, waiting
+    * until no other thread is reading or modifying the page.
+    */
+   public void xLatch() {
+      latch.writeLock().lock();
+   }
+
+   /**
+    * Releases an exclusive latch on the buffer.
+    */
+   public void xUnlatch() {
+      latch.writeLock().unlock();
+   }
+
    /**
     * Returns a reference to the disk block
     * allocated to the buffer.
@@ -40,10 +92,57 @@ public class Buffer {
       return blk;
    }
 
-   public void setModified(int txnum, int lsn) {
-      this.txnum = txnum;
-      if (lsn >= 0)
+   /**
+    * Marks the buffer as modified by the specified transaction.
+    * A nonnegative LSN also becomes the page LSN.
+    * A negative LSN denotes a modification that was not logged,
+    * which cannot be redone during recovery.
+    * @param txnum the id of the modifying transaction
+    * @param lsn the LSN of the corresponding log record, or -1
+    */
+   public synchronized void setModified(int txnum, int lsn) {
+      modifiers.add(txnum);
+      if (lsn >= 0) {
          this.lsn = lsn;
+         if (recLSN < 0)
+            recLSN = lsn;
+         contents.setInt(fm.blockSize() - PAGE_LSN_SIZE, lsn);
+      }
+      else
+         unlogged = true;
+   }
+
+   /**
+    * Records that the image of the whole page has been logged,
+    * so that its unlogged modifications can be redone
+    * during recovery like logged ones, and need not be
+    * written to disk when the transaction commits.
+    * The page must have been logged since its last
+    * unlogged modification.
+    */
+   public synchronized void setImageLogged() {
+      unlogged = false;
+   }
+
+   /**
+    * Returns a copy of the buffer's page, including its page LSN.
+    * Modifications hold the exclusive latch while they change
+    * the page and its page LSN, so a copy made while holding
+    * the shared latch is consistent with the page LSN.
+    * @return a copy of the page
+    */
+   public Page copyContents() {
+      return new Page(contents);
+   }
+
+   /**
+    * Returns the page LSN, which is the LSN of the latest
+    * logged modification to the page, or 0 if the page
+    * has never been modified by a logged operation.
+    * @return the page LSN
+    */
+   public int pageLSN() {
+      return contents.getInt(fm.blockSize() - PAGE_LSN_SIZE);
    }
 
    /**
@@ -55,8 +154,54 @@ public class Buffer {
       return pins > 0;
    }
    
-   public int modifyingTx() {
-      return txnum;
+   /**
+    * Returns true if the buffer holds modifications
+    * that have not yet been written to disk.
+    * @return true if the buffer is dirty
+    */
+   public synchronized boolean isModified() {
+      return !modifiers.isEmpty();
+   }
+
+   /**
+    * Returns true if the specified transaction modified the buffer
+    * since it was last written to disk.
+    * @param txnum the id of the transaction
+    * @return true if the transaction modified the buffer
+    */
+   public synchronized boolean isModifiedBy(int txnum) {
+      return modifiers.contains(txnum);
+   }
+
+   /**
+    * Returns the LSN of the latest log record
+    * describing a modification to the buffer.
+    * The value is meaningful only while the buffer is modified.
+    * @return the LSN of the latest modification
+    */
+   int modifyingLSN() {
+      return lsn;
+   }
+
+   /**
+    * Returns the LSN of the earliest logged modification
+    * made since the buffer was last written to disk,
+    * or -1 if there is none.
+    * Every logged modification to the page that is not
+    * yet on disk has an LSN at least this large.
+    * @return the recovery LSN of the buffer
+    */
+   int recLSN() {
+      return recLSN;
+   }
+
+   /**
+    * Returns true if the buffer holds a modification
+    * that was not logged and has not yet been written to disk.
+    * @return true if the buffer has unlogged changes
+    */
+   boolean hasUnloggedChanges() {
+      return unlogged;
    }
 
    /**
@@ -73,17 +218,75 @@ public class Buffer {
       pins = 0;
    }
    
+   /**
+    * Assigns the buffer to the specified block without
+    * reading it, so that the read can be done later
+    * without holding the buffer manager's lock.
+    * Until {@link #endLoad(boolean)} is called,
+    * the buffer's contents are not valid.
+    * If the buffer was dirty, then its previous contents
+    * are first written to disk.
+    * @param b a reference to the data block
+    */
+   void beginLoad(BlockId b) {
+      flush();
+      blk = b;
+      pins = 0;
+      loading = true;
+   }
+
+   /**
+    * Reads the block assigned by {@link #beginLoad(BlockId)}
+    * into the contents of the buffer.
+    */
+   void load() {
+      fm.read(blk, contents);
+   }
+
+   /**
+    * Marks the end of a load begun by {@link #beginLoad(BlockId)}.
+    * If the load failed, the buffer is left unassigned.
+    * @param ok true if the block was read successfully
+    */
+   void endLoad(boolean ok) {
+      loading = false;
+      if (!ok)
+         blk = null;
+   }
+
+   /**
+    * Returns true if the buffer's block is still being read.
+    * @return true if a load is in progress
+    */
+   boolean isLoading() {
+      return loading;
+   }
+
    /**
     * Write the buffer to its disk block if it is dirty.
+    * The buffer is latched in shared mode while it is written,
+    * so that the disk never receives a partly modified page.
     */
    void flush() {
-      if (txnum >= 0) {
-         lm.flush(lsn);
-         fm.write(blk, contents);
-         txnum = -1;
+      sLatch();
+      try {
+         if (isModified()) {
+            lm.flush(lsn);
+            fm.write(blk, contents);
+            clearModified();
+         }
+      }
+      finally {
+         sUnlatch();
       }
    }
 
+   private synchronized void clearModified() {
+      modifiers.clear();
+      recLSN = -1;
+      unlogged = false;
+   }
+
    /**
     * Increase the buffer's pin count.
     */
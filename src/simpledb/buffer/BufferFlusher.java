@@ -0,0 +1,48 @@
+package simpledb.buffer;
+
+/**
+ * A background thread that writes dirty buffers to disk,
+ * so that the transactions which later evict or commit
+ * those buffers do not have to wait for the writes.
+ * Every few milliseconds the thread asks the buffer manager
+ * to bring the clean fraction of the pool back up to its target.
+ */
+public class BufferFlusher extends Thread {
+   private BufferMgr bm;
+   private double cleanfraction;
+   private long interval;
+
+   /**
+    * Creates a flusher for the specified buffer manager.
+    * The thread is a daemon, and must be started by the caller.
+    * @param bm the buffer manager
+    * @param cleanfraction the fraction of the pool to keep clean
+    * @param interval the number of milliseconds between passes
+    */
+   public BufferFlusher(BufferMgr bm, double cleanfraction, long interval) {
+      super("buffer flusher");
+      this.bm = bm;
+      this.cleanfraction = cleanfraction;
+      this.interval = interval;
+      setDaemon(true);
+   }
+
+   public void run() {
+      try {
+         while (!isInterrupted()) {
+            Thread.sleep(interval);
+            bm.flushDirty(cleanfraction);
+         }
+      }
+      catch(InterruptedException e) {
+         // shutdown was requested
+      }
+   }
+
+   /**
+    * Stops the thread after its current pass.
+    */
+   public void shutdown() {
+      interrupt();
+   }
+}
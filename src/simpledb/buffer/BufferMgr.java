@@ -1,129 +1,303 @@
 package simpledb.buffer;
 
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * The pool is partitioned into {@link BufferSegment segments},
+ * and each block is handled by the segment its id hashes to.
+ * Each segment has its own lock, page table and
+ * {@link ReplacementPolicy}, so that pins of blocks in
+ * different segments do not contend with each other.
+ * Small pools are kept in a single segment, so that
+ * every buffer remains available to every block.
  * @author Edward Sciore
  *
  */
 public class BufferMgr {
-   private Buffer[] bufferpool;
-   private int numAvailable;
-   private static final long MAX_TIME = 10000; // 10 seconds
-   
+   private static final int MIN_SEGMENT_SIZE = 64;
+   private FileMgr fm;
+   private BufferSegment[] segments;
+   private AtomicInteger numAvailable;
+   private int numbuffs;
+   private volatile ReadAhead readAhead;
+
    /**
-    * Creates a buffer manager having the specified number 
-    * of buffer slots.
+    * Creates a buffer manager having the specified number
+    * of buffer slots and an LRU replacement policy.
     * This constructor depends on a {@link FileMgr} and
     * {@link simpledb.log.LogMgr LogMgr} object.
     * @param numbuffs the number of buffer slots to allocate
     */
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer(fm, lm);
+      this(fm, lm, numbuffs, "lru");
+   }
+
+   /**
+    * Creates a buffer manager having the specified number
+    * of buffer slots and the named replacement policy.
+    * The number of segments is chosen from the number of
+    * processors, keeping each segment at least
+    * {@value #MIN_SEGMENT_SIZE} buffers large.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @see ReplacementPolicy#createPolicy(String, int)
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, String policyname) {
+      this(fm, lm, numbuffs, policyname, defaultSegments(numbuffs));
    }
-   
+
+   /**
+    * Creates a buffer manager having the specified number
+    * of buffer slots, split as evenly as possible
+    * into the specified number of segments.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param numsegments the number of segments
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, String policyname, int numsegments) {
+      this.fm = fm;
+      this.numbuffs = numbuffs;
+      numsegments = Math.max(1, Math.min(numsegments, numbuffs));
+      numAvailable = new AtomicInteger(numbuffs);
+      segments = new BufferSegment[numsegments];
+      for (int i=0; i<numsegments; i++) {
+         int segsize = numbuffs / numsegments + (i < numbuffs % numsegments ? 1 : 0);
+         segments[i] = new BufferSegment(fm, lm, segsize, policyname, numAvailable);
+      }
+   }
+
    /**
     * Returns the number of available (i.e. unpinned) buffers.
     * @return the number of available buffers
     */
-   public synchronized int available() {
-      return numAvailable;
+   public int available() {
+      return numAvailable.get();
    }
-   
+
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Returns the number of pin requests that found
+    * their block already in the pool.
+    * @return the number of buffer hits
+    */
+   public long hits() {
+      long hits = 0;
+      for (BufferSegment seg : segments)
+         hits += seg.hits();
+      return hits;
+   }
+
+   /**
+    * Returns the number of pin requests that had to
+    * read their block from disk.
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      long misses = 0;
+      for (BufferSegment seg : segments)
+         misses += seg.misses();
+      return misses;
+   }
+
+   /**
+    * Returns the fraction of pin requests that were hits,
+    * or 0 if there have been no requests.
+    * @return the buffer hit ratio
+    */
+   public double hitRatio() {
+      long hits = hits();
+      long total = hits + misses();
+      return (total == 0) ? 0.0 : (double) hits / total;
+   }
+
+   /**
+    * Resets the hit and miss counters,
+    * so that a workload can be measured in isolation.
+    */
+   public void resetStats() {
+      for (BufferSegment seg : segments)
+         seg.resetStats();
+   }
+
+   /**
+    * Flushes the dirty buffers modified by the specified transaction,
+    * and forces the files they belong to onto the disk.
     * @param txnum the transaction's id number
     */
-   public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.modifyingTx() == txnum)
-         buff.flush();
+   public void flushAll(int txnum) {
+      Set<String> files = new HashSet<>();
+      for (BufferSegment seg : segments)
+         seg.flushAll(txnum, files);
+      for (String filename : files)
+         fm.sync(filename);
+   }
+
+
+   /**
+    * Flushes the buffers that the specified transaction
+    * modified without logging.
+    * These are the only buffers that a committing transaction
+    * must force, since recovery can redo every logged change.
+    * The files they belong to are forced onto the disk.
+    * @param txnum the transaction's id number
+    */
+   public void flushUnlogged(int txnum) {
+      Set<String> files = new HashSet<>();
+      for (BufferSegment seg : segments)
+         seg.flushUnlogged(txnum, files);
+      for (String filename : files)
+         fm.sync(filename);
+   }
+
+   /**
+    * Flushes every dirty buffer in the pool,
+    * regardless of which transaction modified it,
+    * and forces every written file onto the disk.
+    * This is the durability point of a checkpoint.
+    */
+   public void flushAll() {
+      for (BufferSegment seg : segments)
+         seg.flushAll();
+      fm.syncAll();
+   }
+
+   /**
+    * Writes unpinned dirty buffers to disk until at least the
+    * specified fraction of the pool is clean, or until no
+    * unpinned dirty buffers remain.
+    * Buffers are written in order of their latest LSN,
+    * so that the log is forced as little as possible;
+    * each write first flushes the log up to the buffer's LSN.
+    * The writes are not forced to disk, since the log
+    * can redo them.
+    * @param cleanfraction the fraction of the pool to keep clean
+    * @return the number of buffers written
+    */
+   public int flushDirty(double cleanfraction) {
+      List<Buffer> candidates = new ArrayList<>();
+      int numdirty = 0;
+      for (BufferSegment seg : segments)
+         numdirty += seg.collectDirty(candidates);
+      int maxdirty = (int) (numbuffs * (1.0 - cleanfraction));
+      if (numdirty <= maxdirty)
+         return 0;
+      candidates.sort(Comparator.comparingInt(Buffer::modifyingLSN));
+      int written = 0;
+      for (Buffer buff : candidates) {
+         if (numdirty - written <= maxdirty)
+            break;
+         BlockId blk = buff.block();
+         if (blk != null && segmentFor(blk).flushIfUnpinned(buff))
+            written++;
+      }
+      return written;
    }
-   
-   
+
+   /**
+    * Turns on asynchronous read-ahead.
+    * When a file is being read sequentially, up to
+    * the specified number of its following blocks are
+    * read into unpinned buffers in the background.
+    * The window is limited to a quarter of the pool,
+    * so that prefetched blocks cannot crowd out the
+    * blocks that transactions have pinned.
+    * A window of 0 turns read-ahead off.
+    * @param window the maximum number of blocks to read ahead
+    */
+   public synchronized void enableReadAhead(int window) {
+      if (readAhead != null)
+         readAhead.shutdown();
+      window = Math.min(window, numbuffs / 4);
+      readAhead = (window > 0) ? new ReadAhead(this, fm, window) : null;
+   }
+
+   /**
+    * Reads the specified block into an unpinned buffer,
+    * unless it is already in the pool.
+    * Called by the read-ahead thread.
+    * @param blk a reference to a disk block
+    */
+   void prefetch(BlockId blk) {
+      segmentFor(blk).prefetch(blk);
+   }
+
+   /**
+    * Returns the dirty page table, which maps each block
+    * holding logged modifications that are not yet on disk
+    * to the LSN of the earliest such modification.
+    * Recovery never needs to redo a modification
+    * older than the smallest of these LSNs.
+    * The table is a snapshot; it is not kept up to date.
+    * @return the dirty page table
+    */
+   public Map<BlockId,Integer> dirtyPages() {
+      Map<BlockId,Integer> dpt = new HashMap<>();
+      for (BufferSegment seg : segments)
+         seg.collectDirtyPages(dpt);
+      return dpt;
+   }
+
+   /**
+    * Writes the unpinned buffers whose earliest unwritten
+    * logged modification is older than the specified LSN,
+    * so that a page that stays in the pool does not hold
+    * back the point from which recovery has to redo.
+    * As with {@link #flushDirty(double)}, the writes are not forced.
+    * @param lsn the LSN below which buffers are written
+    * @return the number of buffers written
+    */
+   public int flushOlderThan(int lsn) {
+      List<Buffer> candidates = new ArrayList<>();
+      for (BufferSegment seg : segments)
+         seg.collectDirty(candidates);
+      int written = 0;
+      for (Buffer buff : candidates) {
+         BlockId blk = buff.block();
+         int reclsn = buff.recLSN();
+         if (blk != null && reclsn >= 0 && reclsn < lsn
+               && segmentFor(blk).flushIfUnpinned(buff))
+            written++;
+      }
+      return written;
+   }
+
    /**
     * Unpins the specified data buffer. If its pin count
-    * goes to zero, then notify any waiting threads.
+    * goes to zero, then notify any threads waiting
+    * on the buffer's segment.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      buff.unpin();
-      if (!buff.isPinned()) {
-         numAvailable++;
-         notifyAll();
-      }
+   public void unpin(Buffer buff) {
+      segmentFor(buff.block()).unpin(buff);
    }
-   
+
    /**
     * Pins a buffer to the specified block, potentially
-    * waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed 
+    * waiting until a buffer in the block's segment becomes available.
+    * If no buffer becomes available within a fixed
     * time period, then a {@link BufferAbortException} is thrown.
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = tryToPin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = tryToPin(blk);
-         }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
-      }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
-      }
-   }  
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
-   }
-   
-   /**
-    * Tries to pin a buffer to the specified block. 
-    * If there is already a buffer assigned to that block
-    * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
-    * Returns a null value if there are no available buffers.
-    * @param blk a reference to a disk block
-    * @return the pinned buffer
-    */
-   private Buffer tryToPin(BlockId blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
-         if (buff == null)
-            return null;
-         buff.assignToBlock(blk);
-      }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
+   public Buffer pin(BlockId blk) {
+      Buffer buff = segmentFor(blk).pin(blk);
+      ReadAhead ra = readAhead;
+      if (ra != null)
+         ra.accessed(blk);
       return buff;
    }
-   
-   private Buffer findExistingBuffer(BlockId blk) {
-      for (Buffer buff : bufferpool) {
-         BlockId b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
-      }
-      return null;
-   }
-   
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+
+   private BufferSegment segmentFor(BlockId blk) {
+      int h = blk.hashCode();
+      h ^= (h >>> 16);
+      return segments[Math.floorMod(h, segments.length)];
+   }
+
+   private static int defaultSegments(int numbuffs) {
+      int cpus = Runtime.getRuntime().availableProcessors();
+      return Math.max(1, Math.min(2 * cpus, numbuffs / MIN_SEGMENT_SIZE));
    }
 }
@@ -0,0 +1,255 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+/**
+ * One partition of the buffer pool.
+ * Each segment owns a fixed set of buffers, together with
+ * its own page table, replacement policy and statistics.
+ * A block is always cached in the segment that its id hashes to,
+ * so the segment's monitor is the only lock needed to pin it,
+ * and threads waiting for a buffer are woken only when
+ * a buffer in their own segment is unpinned.
+ */
+class BufferSegment {
+   private static final long MAX_TIME = 10000; // 10 seconds
+   private Buffer[] buffers;
+   private Map<BlockId,Buffer> pageTable;
+   private ReplacementPolicy policy;
+   private AtomicInteger totalAvailable;
+   private long hits = 0, misses = 0;
+
+   /**
+    * Creates a segment having the specified number of buffers.
+    * @param numbuffs the number of buffers in the segment
+    * @param policyname the name of the replacement policy
+    * @param totalAvailable the pool-wide count of unpinned buffers
+    */
+   BufferSegment(FileMgr fm, LogMgr lm, int numbuffs, String policyname,
+                 AtomicInteger totalAvailable) {
+      this.totalAvailable = totalAvailable;
+      buffers = new Buffer[numbuffs];
+      pageTable = new HashMap<>(2 * numbuffs);
+      policy = ReplacementPolicy.createPolicy(policyname, numbuffs);
+      for (int i=0; i<numbuffs; i++) {
+         buffers[i] = new Buffer(fm, lm);
+         policy.unpinned(buffers[i]);
+      }
+   }
+
+   synchronized long hits() {
+      return hits;
+   }
+
+   synchronized long misses() {
+      return misses;
+   }
+
+   synchronized void resetStats() {
+      hits = misses = 0;
+   }
+
+   /**
+    * Flushes the dirty buffers of this segment
+    * that were modified by the specified transaction.
+    * @param txnum the transaction's id number
+    * @param files the set to which the names of the written files are added
+    */
+   synchronized void flushAll(int txnum, Set<String> files) {
+      for (Buffer buff : buffers)
+         if (buff.isModifiedBy(txnum)) {
+            buff.flush();
+            files.add(buff.block().fileName());
+         }
+   }
+
+   /**
+    * Flushes the buffers of this segment that the specified
+    * transaction modified without logging.
+    * @param txnum the transaction's id number
+    * @param files the set to which the names of the written files are added
+    */
+   synchronized void flushUnlogged(int txnum, Set<String> files) {
+      for (Buffer buff : buffers)
+         if (buff.isModifiedBy(txnum) && buff.hasUnloggedChanges()) {
+            buff.flush();
+            files.add(buff.block().fileName());
+         }
+   }
+
+   /**
+    * Flushes every dirty buffer of this segment.
+    */
+   synchronized void flushAll() {
+      for (Buffer buff : buffers)
+         buff.flush();
+   }
+
+   /**
+    * Adds the dirty, unpinned buffers of this segment
+    * to the specified list.
+    * @param dirty the list of buffers to be written
+    * @return the number of dirty buffers in the segment, pinned or not
+    */
+   synchronized int collectDirty(List<Buffer> dirty) {
+      int count = 0;
+      for (Buffer buff : buffers)
+         if (buff.isModified()) {
+            count++;
+            if (!buff.isPinned())
+               dirty.add(buff);
+         }
+      return count;
+   }
+
+   /**
+    * Adds the blocks of this segment that hold logged
+    * modifications not yet on disk to the specified
+    * dirty page table, together with their recovery LSNs.
+    * @param dpt the dirty page table
+    */
+   synchronized void collectDirtyPages(Map<BlockId,Integer> dpt) {
+      for (Buffer buff : buffers)
+         if (buff.recLSN() >= 0)
+            dpt.put(buff.block(), buff.recLSN());
+   }
+
+   /**
+    * Writes the specified buffer to disk, provided that
+    * it is still unpinned.
+    * The buffer may have been pinned again since it was
+    * collected, in which case it is left alone.
+    * @param buff a buffer of this segment
+    * @return true if the buffer was written
+    */
+   synchronized boolean flushIfUnpinned(Buffer buff) {
+      if (buff.isPinned() || !buff.isModified())
+         return false;
+      buff.flush();
+      return true;
+   }
+
+   /**
+    * Unpins the specified buffer. If its pin count
+    * goes to zero, then notify the threads waiting
+    * on this segment.
+    * @param buff the buffer to be unpinned
+    */
+   synchronized void unpin(Buffer buff) {
+      buff.unpin();
+      if (!buff.isPinned()) {
+         totalAvailable.incrementAndGet();
+         policy.unpinned(buff);
+         notifyAll();
+      }
+   }
+
+   /**
+    * Pins a buffer of this segment to the specified block,
+    * waiting until one becomes available.
+    * If none becomes available within a fixed
+    * time period, then a {@link BufferAbortException} is thrown.
+    * @param blk a reference to a disk block
+    * @return the buffer pinned to that block
+    */
+   synchronized Buffer pin(BlockId blk) {
+      try {
+         long timestamp = System.currentTimeMillis();
+         Buffer buff = tryToPin(blk);
+         while (buff == null && !waitingTooLong(timestamp)) {
+            wait(MAX_TIME);
+            buff = tryToPin(blk);
+         }
+         if (buff == null)
+            throw new BufferAbortException();
+         return buff;
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+   }
+
+   private boolean waitingTooLong(long starttime) {
+      return System.currentTimeMillis() - starttime > MAX_TIME;
+   }
+
+   /**
+    * Reads the specified block into an unpinned buffer of
+    * this segment, without pinning it, unless the block
+    * is already in the segment or no buffer is available.
+    * The buffer is reserved while the block is read,
+    * but the read itself is done without holding the
+    * segment's lock; a thread that pins the block meanwhile
+    * waits until the read has finished.
+    * @param blk a reference to a disk block
+    */
+   void prefetch(BlockId blk) {
+      Buffer buff;
+      synchronized(this) {
+         if (pageTable.containsKey(blk))
+            return;
+         buff = policy.chooseVictim();
+         if (buff == null)
+            return;
+         BlockId oldblk = buff.block();
+         if (oldblk != null)
+            pageTable.remove(oldblk);
+         buff.beginLoad(blk);
+         buff.pin();
+         totalAvailable.decrementAndGet();
+         pageTable.put(blk, buff);
+      }
+      boolean ok = false;
+      try {
+         buff.load();
+         ok = true;
+      }
+      finally {
+         synchronized(this) {
+            if (!ok)
+               pageTable.remove(blk);
+            buff.endLoad(ok);
+            buff.unpin();
+            totalAvailable.incrementAndGet();
+            policy.unpinned(buff);
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Tries to pin a buffer to the specified block.
+    * If there is already a buffer assigned to that block
+    * then that buffer is used;
+    * otherwise, the replacement policy chooses an unpinned buffer.
+    * Returns a null value if there are no available buffers.
+    * @param blk a reference to a disk block
+    * @return the pinned buffer
+    */
+   private Buffer tryToPin(BlockId blk) {
+      Buffer buff = pageTable.get(blk);
+      if (buff != null && buff.isLoading())
+         return null; // wait for the read-ahead to finish
+      if (buff != null)
+         hits++;
+      else {
+         buff = policy.chooseVictim();
+         if (buff == null)
+            return null;
+         misses++;
+         BlockId oldblk = buff.block();
+         if (oldblk != null)
+            pageTable.remove(oldblk);
+         buff.assignToBlock(blk);
+         pageTable.put(blk, buff);
+      }
+      if (!buff.isPinned())
+         totalAvailable.decrementAndGet();
+      buff.pin();
+      policy.pinned(buff);
+      return buff;
+   }
+}
@@ -0,0 +1,43 @@
+package simpledb.buffer;
+
+import java.io.File;
+import java.util.Random;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+public class BufferSegmentTest {
+   private static final int NUM_BUFFS = 4096;
+   private static final int PINS_PER_THREAD = 200000;
+
+   public static void main(String[] args) throws Exception {
+      FileMgr fm = new FileMgr(new File("segmenttest"), 400);
+      LogMgr lm = new LogMgr(fm, "segmenttest.log");
+      int nthreads = Runtime.getRuntime().availableProcessors();
+      for (int numsegs : new int[] {1, 4, 16, 64}) {
+         BufferMgr bm = new BufferMgr(fm, lm, NUM_BUFFS, "lru", numsegs);
+         // warm the pool so that the timed pins are all hits
+         for (int i=0; i<NUM_BUFFS/2; i++)
+            bm.unpin(bm.pin(new BlockId("testfile", i)));
+         Thread[] threads = new Thread[nthreads];
+         for (int t=0; t<nthreads; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+               Random rand = new Random(seed);
+               for (int i=0; i<PINS_PER_THREAD; i++) {
+                  BlockId blk = new BlockId("testfile", rand.nextInt(NUM_BUFFS/2));
+                  bm.unpin(bm.pin(blk));
+               }
+            });
+         }
+         long start = System.currentTimeMillis();
+         for (Thread th : threads)
+            th.start();
+         for (Thread th : threads)
+            th.join();
+         long elapsed = System.currentTimeMillis() - start;
+         System.out.println(numsegs + " segments, " + nthreads + " threads: "
+               + (nthreads * PINS_PER_THREAD) + " pins in " + elapsed + " ms, "
+               + bm.available() + " buffers available");
+      }
+   }
+}
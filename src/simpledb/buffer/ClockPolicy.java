@@ -0,0 +1,62 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The clock (second-chance) replacement policy.
+ * Each buffer has a reference bit that is set when it is pinned.
+ * The clock hand sweeps the pool, clearing reference bits,
+ * and replaces the first unpinned buffer whose bit is already clear.
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private List<Buffer> ring;
+   private Map<Buffer,Integer> slots;
+   private boolean[] refbits;
+   private int hand = 0;
+
+   public ClockPolicy(int numbuffs) {
+      ring = new ArrayList<>(numbuffs);
+      slots = new HashMap<>(2 * numbuffs);
+      refbits = new boolean[numbuffs];
+   }
+
+   public void pinned(Buffer buff) {
+      refbits[slotOf(buff)] = true;
+   }
+
+   public void unpinned(Buffer buff) {
+      slotOf(buff);
+   }
+
+   /**
+    * Sweeps the ring at most twice; after one full turn
+    * every unpinned buffer has had its bit cleared,
+    * so a second turn either finds a victim or
+    * proves that every buffer is pinned.
+    */
+   public Buffer chooseVictim() {
+      int n = ring.size();
+      for (int i=0; i<2*n; i++) {
+         int slot = hand;
+         hand = (hand + 1) % n;
+         Buffer buff = ring.get(slot);
+         if (buff.isPinned())
+            continue;
+         if (refbits[slot])
+            refbits[slot] = false;
+         else
+            return buff;
+      }
+      return null;
+   }
+
+   private int slotOf(Buffer buff) {
+      Integer slot = slots.get(buff);
+      if (slot == null) {
+         slot = ring.size();
+         ring.add(buff);
+         slots.put(buff, slot);
+      }
+      return slot;
+   }
+}
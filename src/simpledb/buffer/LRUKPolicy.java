@@ -0,0 +1,95 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * The LRU-K replacement policy.
+ * The policy remembers the times of the last K references
+ * to each block, and replaces the unpinned buffer whose
+ * K-th most recent reference is the oldest.
+ * Blocks referenced fewer than K times are replaced first,
+ * in least-recently-used order, which keeps a single
+ * sequential scan from flushing frequently-used blocks.
+ * Reference history is retained for a bounded number of
+ * blocks after they leave the pool.
+ */
+class LRUKPolicy implements ReplacementPolicy {
+   private int k;
+   private long clock = 0;
+   private Map<BlockId,long[]> history;
+   private TreeSet<Candidate> candidates = new TreeSet<>();
+   private Map<Buffer,Candidate> unpinned = new HashMap<>();
+
+   /**
+    * Creates an LRU-K policy.
+    * @param numbuffs the number of buffers in the pool
+    * @param k the number of references remembered per block
+    */
+   public LRUKPolicy(int numbuffs, int k) {
+      this.k = k;
+      int maxhistory = 2 * numbuffs;
+      history = new LinkedHashMap<BlockId,long[]>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<BlockId,long[]> e) {
+            return size() > maxhistory;
+         }
+      };
+   }
+
+   public void pinned(Buffer buff) {
+      Candidate c = unpinned.remove(buff);
+      if (c != null)
+         candidates.remove(c);
+      long[] refs = history.computeIfAbsent(buff.block(), b -> new long[k]);
+      System.arraycopy(refs, 0, refs, 1, k-1);
+      refs[0] = ++clock;
+   }
+
+   public void unpinned(Buffer buff) {
+      long kth = 0, last = 0;
+      BlockId blk = buff.block();
+      if (blk != null) {
+         long[] refs = history.get(blk);
+         if (refs != null) {
+            kth = refs[k-1];
+            last = refs[0];
+         }
+      }
+      Candidate c = new Candidate(buff, kth, last, ++clock);
+      unpinned.put(buff, c);
+      candidates.add(c);
+   }
+
+   public Buffer chooseVictim() {
+      Candidate c = candidates.pollFirst();
+      if (c == null)
+         return null;
+      unpinned.remove(c.buff);
+      return c.buff;
+   }
+
+   /**
+    * An unpinned buffer, ordered by the time of its
+    * K-th most recent reference (0 if it has fewer),
+    * then by its most recent reference.
+    */
+   private static class Candidate implements Comparable<Candidate> {
+      Buffer buff;
+      long kth, last, seq;
+
+      Candidate(Buffer buff, long kth, long last, long seq) {
+         this.buff = buff;
+         this.kth = kth;
+         this.last = last;
+         this.seq = seq;
+      }
+
+      public int compareTo(Candidate c) {
+         if (kth != c.kth)
+            return Long.compare(kth, c.kth);
+         if (last != c.last)
+            return Long.compare(last, c.last);
+         return Long.compare(seq, c.seq);
+      }
+   }
+}
@@ -0,0 +1,30 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The least-recently-used replacement policy.
+ * The unpinned buffers are kept in the order in which
+ * they were unpinned, and the one unpinned longest ago
+ * is replaced.
+ */
+class LRUPolicy implements ReplacementPolicy {
+   private LinkedHashSet<Buffer> unpinned = new LinkedHashSet<>();
+
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public Buffer chooseVictim() {
+      Iterator<Buffer> iter = unpinned.iterator();
+      if (!iter.hasNext())
+         return null;
+      Buffer buff = iter.next();
+      iter.remove();
+      return buff;
+   }
+}
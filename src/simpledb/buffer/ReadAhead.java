@@ -0,0 +1,117 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import simpledb.file.*;
+
+/**
+ * Detects sequential access to each file and reads
+ * the blocks that are about to be needed in the background.
+ * Once a file has been pinned at {@value #MIN_RUN} consecutive
+ * blocks, the next blocks of the file, up to the read-ahead
+ * window, are read into unpinned buffers by a daemon thread.
+ * The window is refilled when the scan has consumed half of it,
+ * so that the prefetches stay ahead of the scan.
+ * Since detection is based on pins, every sequential reader
+ * (table scans, chunk scans, statistics gathering and the
+ * runs of a sort) benefits without being aware of it.
+ */
+class ReadAhead {
+   private static final int MIN_RUN = 3;
+   private static final int MAX_STREAMS = 64;
+   private static final int MAX_QUEUED = 64;
+   private BufferMgr bm;
+   private FileMgr fm;
+   private int window;
+   private ExecutorService reader;
+
+   // The access history of the most recently used files.
+   private Map<String,Stream> streams = new LinkedHashMap<>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String,Stream> eldest) {
+         return size() > MAX_STREAMS;
+      }
+   };
+
+   private static class Stream {
+      int last = -1;  // the block most recently pinned
+      int run;        // the number of consecutive blocks pinned
+      int prefetched; // the highest block requested so far
+   }
+
+   /**
+    * Creates a read-ahead engine for the specified buffer manager.
+    * Prefetch requests that arrive while the reader thread
+    * is too far behind are dropped.
+    * @param bm the buffer manager that holds the prefetched blocks
+    * @param fm the file manager
+    * @param window the number of blocks to read ahead
+    */
+   ReadAhead(BufferMgr bm, FileMgr fm, int window) {
+      this.bm = bm;
+      this.fm = fm;
+      this.window = window;
+      reader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED),
+            r -> {
+               Thread t = new Thread(r, "read-ahead");
+               t.setDaemon(true);
+               return t;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+   }
+
+   /**
+    * Records that the specified block has been pinned,
+    * and schedules a prefetch if the block continues
+    * a sequential run that is close to the end of its window.
+    * @param blk the block that was pinned
+    */
+   void accessed(BlockId blk) {
+      String filename = blk.fileName();
+      int blknum = blk.number();
+      int first, last;
+      synchronized(streams) {
+         Stream s = streams.get(filename);
+         if (s == null) {
+            s = new Stream();
+            streams.put(filename, s);
+         }
+         else if (blknum == s.last)
+            return;
+         if (blknum == s.last + 1 && s.run > 0)
+            s.run++;
+         else {
+            s.run = 1;
+            s.prefetched = blknum;
+         }
+         s.last = blknum;
+         if (s.run < MIN_RUN || s.prefetched - blknum > window / 2)
+            return;
+         first = Math.max(s.prefetched, blknum) + 1;
+         last = blknum + window;
+         s.prefetched = last;
+      }
+      last = Math.min(last, fm.length(filename) - 1);
+      if (first > last)
+         return;
+      int from = first, to = last;
+      reader.execute(() -> {
+         try {
+            for (int n=from; n<=to; n++)
+               bm.prefetch(new BlockId(filename, n));
+         }
+         catch(RuntimeException e) {
+            // a failed prefetch is not an error;
+            // the scan will read the block itself
+         }
+      });
+   }
+
+   /**
+    * Stops the reader thread.
+    * Prefetches that have not started are discarded.
+    */
+   void shutdown() {
+      reader.shutdownNow();
+   }
+}
@@ -0,0 +1,54 @@
+package simpledb.buffer;
+
+import java.io.File;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+public class ReadAheadTest {
+   private static final int NUM_BUFFS = 64;
+   private static final int NUM_BLOCKS = 5000;
+   private static final int WORK_PER_BLOCK = 20000;
+
+   public static void main(String[] args) {
+      FileMgr fm = new FileMgr(new File("readaheadtest"), 400);
+      LogMgr lm = new LogMgr(fm, "readaheadtest.log");
+      Page p = new Page(fm.blockSize());
+      for (int i=fm.length("testfile"); i<NUM_BLOCKS; i++) {
+         BlockId blk = fm.append("testfile");
+         p.setInt(0, blk.number());
+         fm.write(blk, p);
+      }
+      fm.syncAll();
+
+      // an untimed scan, so that the timed ones run compiled code
+      scan(fm, lm, 0);
+      for (int window : new int[] {0, 8, 16}) {
+         long start = System.currentTimeMillis();
+         BufferMgr bm = scan(fm, lm, window);
+         long elapsed = System.currentTimeMillis() - start;
+         System.out.println("window " + window + ": " + NUM_BLOCKS + " blocks in "
+               + elapsed + " ms, hit ratio " + String.format("%.2f", bm.hitRatio())
+               + ", " + bm.available() + " buffers available");
+      }
+   }
+
+   // a sequential scan that does some work on each block
+   private static BufferMgr scan(FileMgr fm, LogMgr lm, int window) {
+      BufferMgr bm = new BufferMgr(fm, lm, NUM_BUFFS);
+      bm.enableReadAhead(window);
+      long sum = 0;
+      for (int i=0; i<NUM_BLOCKS; i++) {
+         Buffer buff = bm.pin(new BlockId("testfile", i));
+         int val = buff.contents().getInt(0);
+         if (val != i)
+            throw new RuntimeException("block " + i + " has wrong contents " + val);
+         for (int j=0; j<WORK_PER_BLOCK; j++)
+            sum += (val ^ j) & 1;
+         bm.unpin(buff);
+      }
+      bm.enableReadAhead(0);
+      if (sum != (long) NUM_BLOCKS * WORK_PER_BLOCK / 2)
+         throw new RuntimeException("wrong sum " + sum);
+      return bm;
+   }
+}
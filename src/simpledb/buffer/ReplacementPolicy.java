@@ -0,0 +1,59 @@
+package simpledb.buffer;
+
+/**
+ * The interface implemented by each buffer replacement strategy.
+ * The buffer manager tells the policy whenever a buffer is
+ * pinned and whenever its pin count drops to zero,
+ * and asks the policy for a victim when a block needs
+ * to be read into the pool.
+ * Each {@link BufferSegment} has its own policy, and all calls
+ * are made while the segment's lock is held,
+ * so implementations need no synchronization of their own.
+ */
+public interface ReplacementPolicy {
+   /**
+    * Called each time the buffer is pinned, including
+    * the pin that immediately follows its assignment
+    * to a new block.
+    * @param buff the buffer that was pinned
+    */
+   void pinned(Buffer buff);
+
+   /**
+    * Called when the buffer's pin count goes to zero,
+    * and once for each buffer when the pool is created.
+    * From then on the buffer is a candidate for replacement.
+    * @param buff the buffer that became unpinned
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to be reassigned.
+    * Returns null if every buffer is pinned.
+    * @return the buffer to replace, or null
+    */
+   Buffer chooseVictim();
+
+   /**
+    * Creates the policy having the specified name
+    * for a pool segment of the specified size.
+    * The recognized names are "lru", "clock", "lruk" and "2q".
+    * @param name the name of the policy
+    * @param numbuffs the number of buffers in the segment
+    * @return the new replacement policy
+    */
+   static ReplacementPolicy createPolicy(String name, int numbuffs) {
+      switch (name.toLowerCase()) {
+      case "lru":
+         return new LRUPolicy();
+      case "clock":
+         return new ClockPolicy(numbuffs);
+      case "lruk":
+         return new LRUKPolicy(numbuffs, 2);
+      case "2q":
+         return new TwoQueuePolicy(numbuffs);
+      default:
+         throw new RuntimeException("unknown replacement policy " + name);
+      }
+   }
+}
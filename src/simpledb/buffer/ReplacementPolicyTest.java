@@ -0,0 +1,35 @@
+package simpledb.buffer;
+
+import java.io.File;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+public class ReplacementPolicyTest {
+   public static void main(String[] args) {
+      FileMgr fm = new FileMgr(new File("policytest"), 400);
+      LogMgr lm = new LogMgr(fm, "policytest.log");
+      String[] policies = {"lru", "clock", "lruk", "2q"};
+      long[] hits = new long[policies.length];
+      for (int p=0; p<policies.length; p++) {
+         String name = policies[p];
+         BufferMgr bm = new BufferMgr(fm, lm, 8, name);
+         // Four hot blocks are read between the bursts of a long scan.
+         // Most bursts are short enough for the hot blocks to stay
+         // in an LRU pool, but every third one is long enough to flush them.
+         int scanblk = 0;
+         for (int i=0; i<100; i++) {
+            for (int j=0; j<4; j++)
+               bm.unpin(bm.pin(new BlockId("hotfile", j)));
+            int burst = (i % 3 == 2) ? 12 : 3;
+            for (int j=0; j<burst; j++)
+               bm.unpin(bm.pin(new BlockId("scanfile", scanblk++)));
+         }
+         hits[p] = bm.hits();
+         System.out.println(name + ": " + bm.hits() + " hits, "
+               + bm.misses() + " misses, hit ratio " + bm.hitRatio());
+      }
+      // the scan-resistant policies must keep more hot blocks than LRU and clock
+      if (Math.min(hits[2], hits[3]) <= Math.max(hits[0], hits[1]))
+         throw new RuntimeException("lruk and 2q do not outperform lru and clock");
+   }
+}
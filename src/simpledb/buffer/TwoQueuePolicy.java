@@ -0,0 +1,121 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * The 2Q replacement policy.
+ * A block read into the pool for the first time goes on the
+ * FIFO queue A1in. If the block is evicted from A1in, its id
+ * is remembered in the ghost queue A1out; should it be read
+ * again while still remembered, it goes on the LRU queue Am.
+ * Victims are taken from A1in while that queue is over its
+ * target size, and from Am otherwise, so blocks touched once
+ * by a scan never displace the blocks in Am.
+ * <p>
+ * The unpinned members of each queue are also kept in a
+ * map ordered by their position in the queue, so that
+ * a victim is found without passing over pinned buffers.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+   private int kin, kout;
+   private long clock = 0;
+   private LinkedHashSet<Buffer> free = new LinkedHashSet<>();
+   private Set<Buffer> a1in = new HashSet<>();
+   private Set<Buffer> am = new HashSet<>();
+   private LinkedHashSet<BlockId> a1out = new LinkedHashSet<>();
+
+   // The position of each queued buffer: the time it joined A1in,
+   // or the time it was last pinned if it is in Am.
+   private Map<Buffer,Long> positions = new HashMap<>();
+   private TreeMap<Long,Buffer> a1inUnpinned = new TreeMap<>();
+   private TreeMap<Long,Buffer> amUnpinned = new TreeMap<>();
+
+   /**
+    * Creates a 2Q policy, using the customary sizes of
+    * a quarter of the pool for A1in and half the pool for A1out.
+    * @param numbuffs the number of buffers in the pool
+    */
+   public TwoQueuePolicy(int numbuffs) {
+      kin = Math.max(1, numbuffs / 4);
+      kout = Math.max(1, numbuffs / 2);
+   }
+
+   public void pinned(Buffer buff) {
+      if (free.remove(buff) || !isQueued(buff)) {
+         if (a1out.remove(buff.block()))
+            enqueue(buff, am);
+         else
+            enqueue(buff, a1in);
+      }
+      else {
+         unpinnedMembers(buff).remove(positions.get(buff));
+         if (am.contains(buff))
+            positions.put(buff, clock++);
+      }
+   }
+
+   /**
+    * A buffer that is in none of the queues has been
+    * filled by read-ahead without being pinned;
+    * it joins A1in, as on a first reference.
+    */
+   public void unpinned(Buffer buff) {
+      if (buff.block() == null) {
+         free.add(buff);
+         return;
+      }
+      if (!isQueued(buff))
+         enqueue(buff, a1in);
+      unpinnedMembers(buff).put(positions.get(buff), buff);
+   }
+
+   public Buffer chooseVictim() {
+      Iterator<Buffer> iter = free.iterator();
+      if (iter.hasNext()) {
+         Buffer buff = iter.next();
+         iter.remove();
+         return buff;
+      }
+      if (a1in.size() > kin || am.isEmpty()) {
+         Buffer buff = evictFromA1in();
+         if (buff != null)
+            return buff;
+      }
+      Buffer buff = evictFrom(am, amUnpinned);
+      return (buff != null) ? buff : evictFromA1in();
+   }
+
+   private Buffer evictFromA1in() {
+      Buffer buff = evictFrom(a1in, a1inUnpinned);
+      if (buff != null) {
+         a1out.add(buff.block());
+         if (a1out.size() > kout)
+            a1out.remove(a1out.iterator().next());
+      }
+      return buff;
+   }
+
+   private Buffer evictFrom(Set<Buffer> queue, TreeMap<Long,Buffer> unpinned) {
+      Map.Entry<Long,Buffer> first = unpinned.pollFirstEntry();
+      if (first == null)
+         return null;
+      Buffer buff = first.getValue();
+      queue.remove(buff);
+      positions.remove(buff);
+      return buff;
+   }
+
+   private void enqueue(Buffer buff, Set<Buffer> queue) {
+      queue.add(buff);
+      positions.put(buff, clock++);
+   }
+
+   private boolean isQueued(Buffer buff) {
+      return a1in.contains(buff) || am.contains(buff);
+   }
+
+   private TreeMap<Long,Buffer> unpinnedMembers(Buffer buff) {
+      return am.contains(buff) ? amUnpinned : a1inUnpinned;
+   }
+}
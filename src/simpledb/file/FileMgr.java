@@ -1,17 +1,45 @@
 package simpledb.file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The file manager reads and writes blocks using positional
+ * I/O on each file's channel. Reads and writes take no lock,
+ * so that I/O on different files, or on different blocks of
+ * the same file, can proceed in parallel.
+ * Appending to a file and syncing it lock only that file.
+ * In memory-mapped mode, each file is also mapped into memory,
+ * and blocks are copied to and from the mapping instead.
+ */
 public class FileMgr {
    private File dbDirectory;
    private int blocksize;
    private boolean isNew;
-   private Map<String,RandomAccessFile> openFiles = new HashMap<>();
+   private Map<String,FileChannel> openFiles = new ConcurrentHashMap<>();
+   private Set<String> unsynced = ConcurrentHashMap.newKeySet();
+   private Map<String,MappedFile> mappings;
 
    public FileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, false);
+   }
+
+   /**
+    * Creates a file manager that optionally memory-maps its files.
+    * Mapping suits read-mostly databases that fit in memory.
+    * @param dbDirectory the database directory
+    * @param blocksize the block size
+    * @param mapped true if the files should be memory-mapped
+    */
+   public FileMgr(File dbDirectory, int blocksize, boolean mapped) {
       this.dbDirectory = dbDirectory;
       this.blocksize = blocksize;
+      if (mapped)
+         mappings = new ConcurrentHashMap<>();
       isNew = !dbDirectory.exists();
 
       // create the directory if the database is new
@@ -20,72 +48,274 @@ public class FileMgr {
 
       // remove any leftover temporary tables
       for (String filename : dbDirectory.list())
-         if (filename.startsWith("temp"))
+         if (isTempFile(filename))
          		new File(dbDirectory, filename).delete();
    }
 
-   public synchronized void read(BlockId blk, Page p) {
+   /**
+    * Reads the specified block into the page.
+    * The part of the page that lies beyond the end
+    * of the file is filled with zeros.
+    */
+   public void read(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
+         FileChannel fc = getFile(blk.fileName(), false);
+         ByteBuffer bb = p.contents();
+         if (fc == null) {
+            fillZeros(bb);
+            return;
+         }
+         MappedFile mf = getMapping(blk.fileName(), fc);
+         if (mf != null && mf.read(blk.number(), bb))
+            return;
+         readFully(fc, bb, (long) blk.number() * blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
-   public synchronized void write(BlockId blk, Page p) {
+   /**
+    * Reads consecutive blocks, beginning with the specified one,
+    * into the page, using a single read of the file.
+    * The page may span any number of blocks.
+    * The part of the page that lies beyond the end
+    * of the file is filled with zeros.
+    * @param blk the first block to read
+    * @param p the page, whose size is a multiple of the block size
+    */
+   public void readBlocks(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
+         FileChannel fc = getFile(blk.fileName(), false);
+         if (fc == null)
+            fillZeros(p.contents());
+         else
+            readFully(fc, p.contents(), (long) blk.number() * blocksize);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks from " + blk);
+      }
+   }
+
+   public void write(BlockId blk, Page p) {
+      try {
+         FileChannel fc = getFile(blk.fileName());
+         ByteBuffer bb = p.contents();
+         MappedFile mf = getMapping(blk.fileName(), fc);
+         if (mf == null || !mf.write(blk.number(), bb))
+            writeFully(fc, bb, (long) blk.number() * blocksize);
+         written(blk.fileName());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   public BlockId append(String filename) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.write(b);
+         FileChannel fc = getFile(filename);
+         synchronized(fc) {
+            int newblknum = (int) (fc.size() / blocksize);
+            BlockId blk = new BlockId(filename, newblknum);
+            ByteBuffer b = ByteBuffer.allocate(blocksize);
+            writeFully(fc, b, (long) newblknum * blocksize);
+            written(filename);
+            MappedFile mf = getMapping(filename, fc);
+            if (mf != null)
+               mf.extend(fc.size());
+            return blk;
+         }
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot append block" + blk);
+         throw new RuntimeException("cannot append block to " + filename);
       }
-      return blk;
+   }
+
+   /**
+    * Forces any writes to the specified file
+    * onto the disk device.
+    * Files that have not been written since
+    * their last sync are not forced again.
+    * A call that finds another thread forcing the file
+    * waits for that force to complete.
+    * @param filename the name of the file
+    */
+   public void sync(String filename) {
+      try {
+         FileChannel fc = getFile(filename);
+         synchronized(fc) {
+            if (unsynced.remove(filename)) {
+               MappedFile mf = getMapping(filename, fc);
+               if (mf != null)
+                  mf.force();
+               fc.force(false);
+            }
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot sync " + filename);
+      }
+   }
+
+   /**
+    * Forces the writes to every file that has been
+    * written since its last sync.
+    * Temporary files are never synced, since they
+    * do not survive a restart.
+    */
+   public void syncAll() {
+      for (String filename : new ArrayList<>(unsynced))
+         sync(filename);
    }
 
    public int length(String filename) {
       try {
-         RandomAccessFile f = getFile(filename);
-         return (int)(f.length() / blocksize);
+         FileChannel fc = getFile(filename, false);
+         if (fc == null)
+            return 0;
+         return (int)(fc.size() / blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Returns the names of the files in the database
+    * directory that begin with the specified prefix.
+    * @param prefix the beginning of the file names
+    * @return the names of the matching files
+    */
+   public List<String> fileNames(String prefix) {
+      List<String> result = new ArrayList<>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix))
+            result.add(filename);
+      return result;
+   }
+
+   /**
+    * Closes the specified file and removes it from the
+    * database directory.
+    * If an archive directory is specified, then the file
+    * is moved there instead of being deleted.
+    * @param filename the name of the file
+    * @param archiveDir the archive directory, or null
+    */
+   public void remove(String filename, File archiveDir) {
+      try {
+         FileChannel fc = openFiles.remove(filename);
+         if (fc != null)
+            fc.close();
+         if (mappings != null)
+            mappings.remove(filename);
+         unsynced.remove(filename);
+         Path path = new File(dbDirectory, filename).toPath();
+         if (archiveDir == null)
+            Files.deleteIfExists(path);
+         else {
+            archiveDir.mkdirs();
+            Files.move(path, new File(archiveDir, filename).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot remove " + filename);
+      }
+   }
+
    public boolean isNew() {
       return isNew;
    }
-   
+
    public int blockSize() {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
-      RandomAccessFile f = openFiles.get(filename);
-      if (f == null) {
-         File dbTable = new File(dbDirectory, filename);
-         f = new RandomAccessFile(dbTable, "rws");
-         openFiles.put(filename, f);
+   private FileChannel getFile(String filename) throws IOException {
+      return getFile(filename, true);
+   }
+
+   /**
+    * Returns the channel of the specified file, opening it if necessary.
+    * A file that does not exist is created only if requested;
+    * reads and size queries do not create files, so that they
+    * cannot bring back a file that has just been removed,
+    * such as a truncated log segment.
+    * @param filename the name of the file
+    * @param create true if a missing file should be created
+    * @return the channel, or null if the file does not exist
+    * and is not created
+    */
+   private FileChannel getFile(String filename, boolean create) throws IOException {
+      FileChannel fc = openFiles.get(filename);
+      if (fc == null) {
+         synchronized(openFiles) {
+            fc = openFiles.get(filename);
+            if (fc == null) {
+               File dbTable = new File(dbDirectory, filename);
+               if (!create && !dbTable.exists())
+                  return null;
+               fc = new RandomAccessFile(dbTable, "rw").getChannel();
+               openFiles.put(filename, fc);
+            }
+         }
       }
-      return f;
+      return fc;
+   }
+
+   /**
+    * Returns the mapping of the specified file,
+    * creating it if necessary,
+    * or null if the file manager is not memory-mapped.
+    * Temporary files are never mapped.
+    */
+   private MappedFile getMapping(String filename, FileChannel fc) throws IOException {
+      if (mappings == null || isTempFile(filename))
+         return null;
+      MappedFile mf = mappings.get(filename);
+      if (mf == null) {
+         synchronized(mappings) {
+            mf = mappings.get(filename);
+            if (mf == null) {
+               mf = new MappedFile(fc, blocksize);
+               mappings.put(filename, mf);
+            }
+         }
+      }
+      return mf;
+   }
+
+   private void readFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+      while (bb.hasRemaining()) {
+         if (fc.read(bb, pos + bb.position()) < 0)
+            break;
+      }
+      fillZeros(bb);
+   }
+
+   private void fillZeros(ByteBuffer bb) {
+      while (bb.hasRemaining())
+         bb.put((byte) 0);
+   }
+
+   private void writeFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+      while (bb.hasRemaining())
+         fc.write(bb, pos + bb.position());
+   }
+
+   private void written(String filename) {
+      if (!isTempFile(filename))
+         unsynced.add(filename);
+   }
+
+   /**
+    * Returns true if the specified file holds a temporary table.
+    * Temporary files are deleted when the database starts up.
+    * @param filename the name of the file
+    * @return true if the file is temporary
+    */
+   public static boolean isTempFile(String filename) {
+      return filename.startsWith("temp");
    }
 }
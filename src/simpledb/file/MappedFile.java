@@ -0,0 +1,93 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * The memory mapping of a database file.
+ * The file is mapped in fixed-size chunks, and a chunk is mapped
+ * only once the file has grown to cover it completely,
+ * so that mapping never changes the length of the file.
+ * Blocks in the unmapped tail of the file are accessed
+ * through the file channel instead.
+ */
+class MappedFile {
+   static final int CHUNK_SIZE = 1 << 20; // 1 MB
+   private FileChannel fc;
+   private int blocksize;
+   private int chunkBlocks;
+   private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+   MappedFile(FileChannel fc, int blocksize) throws IOException {
+      this.fc = fc;
+      this.blocksize = blocksize;
+      chunkBlocks = Math.max(1, CHUNK_SIZE / blocksize);
+      extend(fc.size());
+   }
+
+   /**
+    * Copies the specified block from the mapping into the buffer.
+    * @param blknum the block number
+    * @param dst the buffer, positioned at 0
+    * @return false if the block is not mapped
+    */
+   boolean read(int blknum, ByteBuffer dst) {
+      ByteBuffer src = blockSlice(blknum);
+      if (src == null)
+         return false;
+      dst.put(src);
+      return true;
+   }
+
+   /**
+    * Copies the buffer into the mapping of the specified block.
+    * @param blknum the block number
+    * @param src the buffer, positioned at 0
+    * @return false if the block is not mapped
+    */
+   boolean write(int blknum, ByteBuffer src) {
+      ByteBuffer dst = blockSlice(blknum);
+      if (dst == null)
+         return false;
+      dst.put(src);
+      return true;
+   }
+
+   /**
+    * Maps the chunks that a file of the specified size
+    * now covers completely.
+    * @param filesize the current size of the file in bytes
+    */
+   synchronized void extend(long filesize) throws IOException {
+      long chunkbytes = (long) chunkBlocks * blocksize;
+      int n = chunks.length;
+      if ((n+1) * chunkbytes > filesize)
+         return;
+      MappedByteBuffer[] newchunks = new MappedByteBuffer[(int) (filesize / chunkbytes)];
+      System.arraycopy(chunks, 0, newchunks, 0, n);
+      for (int i=n; i<newchunks.length; i++)
+         newchunks[i] = fc.map(FileChannel.MapMode.READ_WRITE, i * chunkbytes, chunkbytes);
+      chunks = newchunks;
+   }
+
+   /**
+    * Forces the changes made through the mapping onto the disk.
+    */
+   void force() {
+      for (MappedByteBuffer chunk : chunks)
+         chunk.force();
+   }
+
+   private ByteBuffer blockSlice(int blknum) {
+      MappedByteBuffer[] current = chunks;
+      int chunk = blknum / chunkBlocks;
+      if (chunk >= current.length)
+         return null;
+      int offset = (blknum % chunkBlocks) * blocksize;
+      ByteBuffer slice = current[chunk].duplicate();
+      slice.position(offset);
+      slice.limit(offset + blocksize);
+      return slice;
+   }
+}
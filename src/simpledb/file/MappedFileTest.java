@@ -0,0 +1,38 @@
+package simpledb.file;
+
+import java.io.File;
+import java.util.Random;
+
+public class MappedFileTest {
+   private static final int BLOCK_SIZE = 400;
+   private static final int NUM_BLOCKS = 10000;
+   private static final int NUM_READS = 1000000;
+
+   public static void main(String[] args) {
+      for (boolean mapped : new boolean[] {false, true}) {
+         String mode = mapped ? "memory-mapped" : "file channel";
+         FileMgr fm = new FileMgr(new File("mappedfiletest"), BLOCK_SIZE, mapped);
+         String filename = mapped ? "mappedfile" : "channelfile";
+         Page p = new Page(BLOCK_SIZE);
+         if (fm.length(filename) < NUM_BLOCKS) {
+            for (int i=fm.length(filename); i<NUM_BLOCKS; i++) {
+               BlockId blk = fm.append(filename);
+               p.setInt(0, blk.number());
+               fm.write(blk, p);
+            }
+            fm.syncAll();
+         }
+
+         Random rand = new Random(0);
+         long start = System.currentTimeMillis();
+         for (int i=0; i<NUM_READS; i++) {
+            int blknum = rand.nextInt(NUM_BLOCKS);
+            fm.read(new BlockId(filename, blknum), p);
+            if (p.getInt(0) != blknum)
+               throw new RuntimeException(mode + ": block " + blknum + " has wrong contents");
+         }
+         long elapsed = System.currentTimeMillis() - start;
+         System.out.println(mode + ": " + NUM_READS + " random block reads in " + elapsed + " ms");
+      }
+   }
+}
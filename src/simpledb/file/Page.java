@@ -17,6 +17,14 @@ public class Page {
       bb = ByteBuffer.wrap(b);
    }
 
+   // For copying a page
+   public Page(Page p) {
+      ByteBuffer src = p.bb.duplicate();
+      src.clear();
+      bb = ByteBuffer.allocate(src.capacity());
+      bb.put(src);
+   }
+
    public int getInt(int offset) {
       return bb.getInt(offset);
    }
@@ -25,18 +33,22 @@ public class Page {
       bb.putInt(offset, n);
    }
 
+   // Byte arrays are accessed through a duplicate of the buffer,
+   // so that threads sharing a page never move each other's position.
    public byte[] getBytes(int offset) {
-      bb.position(offset);
-      int length = bb.getInt();
+      int length = bb.getInt(offset);
       byte[] b = new byte[length];
-      bb.get(b);
+      ByteBuffer src = bb.duplicate();
+      src.position(offset + Integer.BYTES);
+      src.get(b);
       return b;
    }
 
    public void setBytes(int offset, byte[] b) {
-      bb.position(offset);
-      bb.putInt(b.length);
-      bb.put(b);
+      bb.putInt(offset, b.length);
+      ByteBuffer dst = bb.duplicate();
+      dst.position(offset + Integer.BYTES);
+      dst.put(b);
    }
    
    public String getString(int offset) {
@@ -56,7 +68,8 @@ public class Page {
 
    // a package private method, needed by FileMgr
    ByteBuffer contents() {
-      bb.position(0);
-      return bb;
+      ByteBuffer dup = bb.duplicate();
+      dup.clear();
+      return dup;
    }
 }
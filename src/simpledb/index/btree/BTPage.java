@@ -17,6 +17,7 @@ public class BTPage {
    private Transaction tx;
    private BlockId currentblk;
    private Layout layout;
+   private boolean okToLog = true;
    
    /**
     * Open a node for the specified B-tree block.
@@ -61,6 +62,24 @@ public class BTPage {
    public boolean isFull() {
       return slotpos(getNumRecs()+1) >= tx.blockSize();
    }
+
+   /**
+    * Return true if another record can be added to the
+    * block without making it full.
+    * @return true if the block has room for another record
+    */
+   public boolean hasRoom() {
+      return slotpos(getNumRecs()+2) < tx.blockSize();
+   }
+
+   /**
+    * Stop logging the modifications to the page,
+    * which is being filled by a bulk load that
+    * logs the image of the page instead.
+    */
+   public void disableLogging() {
+      okToLog = false;
+   }
    
    /**
     * Split the page at the specified position.
@@ -101,7 +120,7 @@ public class BTPage {
     * @param val the new value of the page flag
     */
    public void setFlag(int val) {
-      tx.setInt(currentblk, 0, val, true);
+      tx.setInt(currentblk, 0, val, okToLog);
    }
    
    /**
@@ -114,6 +133,7 @@ public class BTPage {
       BlockId blk = tx.append(currentblk.fileName());
       tx.pin(blk);
       format(blk, flag);
+      tx.unpin(blk);
       return blk;
    }
  
@@ -223,12 +243,12 @@ public class BTPage {
    
    private void setInt(int slot, String fldname, int val) {
       int pos = fldpos(slot, fldname);
-      tx.setInt(currentblk, pos, val, true);
+      tx.setInt(currentblk, pos, val, okToLog);
    }
    
    private void setString(int slot, String fldname, String val) {
       int pos = fldpos(slot, fldname);
-      tx.setString(currentblk, pos, val, true);
+      tx.setString(currentblk, pos, val, okToLog);
    }
    
    private void setVal(int slot, String fldname, Constant val) {
@@ -240,7 +260,7 @@ public class BTPage {
    }
    
    private void setNumRecs(int n) {
-      tx.setInt(currentblk, Integer.BYTES, n, true);
+      tx.setInt(currentblk, Integer.BYTES, n, okToLog);
    }
    
    private void insert(int slot) {
@@ -255,7 +275,13 @@ public class BTPage {
          setVal(to, fldname, getVal(from, fldname));
    }
    
-   private void transferRecs(int slot, BTPage dest) {
+   /**
+    * Move the records of the page, starting at the specified
+    * slot, to the beginning of the specified page.
+    * @param slot the slot of the first record to be moved
+    * @param dest the page that receives the records
+    */
+   void transferRecs(int slot, BTPage dest) {
       int destslot = 0;
       while (slot < getNumRecs()) {
          dest.insert(destslot);
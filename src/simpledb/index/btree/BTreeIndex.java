@@ -17,12 +17,15 @@ public class BTreeIndex implements Index {
    private String leaftbl;
    private BTreeLeaf leaf = null;
    private BlockId rootblk;
+   private boolean isEmpty = false;
 
    /**
     * Opens a B-tree index for the specified index.
     * The method determines the appropriate files
     * for the leaf and directory records,
     * creating them if they did not exist.
+    * A read-only transaction cannot create them,
+    * and so sees an index that does not exist as empty.
     * @param idxname the name of the index
     * @param leafsch the schema of the leaf index records
     * @param tx the calling transaction
@@ -32,10 +35,15 @@ public class BTreeIndex implements Index {
       // deal with the leaves
       leaftbl = idxname + "leaf";
       this.leafLayout = leafLayout;
+      if (tx.size(leaftbl) == 0 && tx.isReadOnly()) {
+         isEmpty = true;
+         return;
+      }
       if (tx.size(leaftbl) == 0) {
          BlockId blk = tx.append(leaftbl);
          BTPage node = new BTPage(tx, blk, leafLayout);
          node.format(blk, -1);
+         node.close();
       }
 
       // deal with the directory
@@ -72,6 +80,8 @@ public class BTreeIndex implements Index {
     */
    public void beforeFirst(Constant searchkey) {
       close();
+      if (isEmpty)
+         return;
       BTreeDir root = new BTreeDir(tx, rootblk, dirLayout);
       int blknum = root.search(searchkey);
       root.close();
@@ -86,7 +96,7 @@ public class BTreeIndex implements Index {
     * @see simpledb.index.Index#next()
     */
    public boolean next() {
-      return leaf.next();
+      return !isEmpty && leaf.next();
    }
 
    /**
@@ -121,6 +131,30 @@ public class BTreeIndex implements Index {
       root.close();
    }
 
+   /**
+    * Return a loader that builds the index bottom-up from
+    * index records given in key order, or null if the index
+    * is not empty, in which case its records must be inserted
+    * one at a time.
+    * The leaf and directory files are locked exclusively.
+    * @return a loader for the index, or null
+    * @see BTreeLoader
+    */
+   public BTreeLoader loader() {
+      if (isEmpty)
+         return null;
+      String dirtbl = rootblk.fileName();
+      tx.xLockTable(leaftbl);
+      tx.xLockTable(dirtbl);
+      if (tx.size(leaftbl) != 1 || tx.size(dirtbl) != 1)
+         return null;
+      BlockId leafblk = new BlockId(leaftbl, 0);
+      BTPage node = new BTPage(tx, leafblk, leafLayout);
+      boolean empty = node.getNumRecs() == 0 && node.getFlag() < 0;
+      node.close();
+      return empty ? new BTreeLoader(tx, leafblk, leafLayout, rootblk, dirLayout) : null;
+   }
+
    /**
     * Delete the specified index record.
     * The method first traverses the directory to find
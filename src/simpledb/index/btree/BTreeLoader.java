@@ -0,0 +1,201 @@
+package simpledb.index.btree;
+
+import java.util.*;
+import simpledb.file.BlockId;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.Constant;
+
+/**
+ * Builds an empty B-tree index bottom-up from index records
+ * that arrive in key order, instead of inserting them one
+ * at a time through the directory.
+ * <p>
+ * The leaves are filled from left to right. All of the records
+ * having the same key stay in one leaf, as a split would keep them;
+ * if they do not fit in a leaf, the rest of them go into overflow
+ * blocks chained from it.
+ * The directory entry of each leaf is kept in memory until a
+ * directory page's worth has accumulated, which is then written
+ * to a directory block, and so on up the levels.
+ * When the loader is closed, the highest level is written into
+ * the root, which must stay in block 0 of the directory file.
+ * <p>
+ * The blocks that the loader appends are filled without logging
+ * their modifications, and the image of each page is logged once
+ * it is complete, as {@link simpledb.record.TableLoader} does.
+ * The existing first leaf and root are modified normally.
+ * The loader must always be closed, even if the load fails,
+ * since the buffer of the leaf being filled stays latched.
+ */
+public class BTreeLoader {
+   private Transaction tx;
+   private Layout leafLayout, dirLayout;
+   private String leaftbl, dirtbl;
+   private BTPage leaf;
+   private BlockId leafblk;
+   private boolean overflow = false;
+   private int dircapacity;
+   private List<List<DirEntry>> levels = new ArrayList<>();
+
+   /**
+    * Creates a loader for an empty B-tree, whose leaf and
+    * directory files have a single block each.
+    * The caller must hold exclusive locks on both files.
+    * @param tx the calling transaction
+    * @param leafblk the first (and only) leaf block
+    * @param leafLayout the layout of the leaf records
+    * @param rootblk the root block
+    * @param dirLayout the layout of the directory records
+    */
+   BTreeLoader(Transaction tx, BlockId leafblk, Layout leafLayout,
+               BlockId rootblk, Layout dirLayout) {
+      this.tx = tx;
+      this.leafblk = leafblk;
+      this.leafLayout = leafLayout;
+      this.dirLayout = dirLayout;
+      leaftbl = leafblk.fileName();
+      dirtbl = rootblk.fileName();
+      leaf = new BTPage(tx, leafblk, leafLayout);
+
+      // the root's only entry leads to the first leaf
+      BTPage root = new BTPage(tx, rootblk, dirLayout);
+      List<DirEntry> entries = new ArrayList<>();
+      entries.add(new DirEntry(root.getDataVal(0), leafblk.number()));
+      levels.add(entries);
+      dircapacity = capacity(dirLayout);
+      root.close();
+   }
+
+   /**
+    * Adds the specified index record to the B-tree.
+    * Its key must not be smaller than that of the previous record.
+    * @param dataval the key of the record
+    * @param datarid the dataRID of the record
+    */
+   public void insert(Constant dataval, RID datarid) {
+      boolean samekey = leaf.getNumRecs() > 0
+            && leaf.getDataVal(leaf.getNumRecs()-1).equals(dataval);
+      if (overflow && !samekey)
+         newLeaf(dataval);
+      else if (!leaf.hasRoom())
+         newLeaf(dataval);
+      leaf.insertLeaf(leaf.getNumRecs(), dataval, datarid);
+   }
+
+   /**
+    * Finishes the last leaf, and writes the directory entries
+    * that are still in memory, ending with the root.
+    */
+   public void close() {
+      if (leaf == null)
+         return;
+      finish(leaf, leafblk);
+      leaf = null;
+      for (int level=0; level<levels.size(); level++) {
+         List<DirEntry> entries = levels.get(level);
+         if (level == levels.size() - 1)
+            writeRoot(level, entries);
+         else
+            writeDirPage(level, entries);
+      }
+   }
+
+   /**
+    * Moves on from the current leaf, which is full
+    * or holds only the records of an earlier key.
+    * If the current leaf holds only records having the
+    * specified key, the next block is an overflow block.
+    * Otherwise it is a new leaf, which takes over the records
+    * of the current leaf having the specified key, if any,
+    * so that they are not split between two leaves.
+    */
+   private void newLeaf(Constant dataval) {
+      int n = leaf.getNumRecs();
+      boolean samekey = leaf.getDataVal(n-1).equals(dataval);
+      BlockId blk = tx.append(leaftbl);
+      BTPage page = beginPage(blk, leafLayout, -1);
+      if (samekey && leaf.getDataVal(0).equals(dataval)) {
+         leaf.setFlag(blk.number());
+         overflow = true;
+      }
+      else {
+         if (samekey) {
+            int pos = n - 1;
+            while (leaf.getDataVal(pos-1).equals(dataval))
+               pos--;
+            leaf.transferRecs(pos, page);
+         }
+         addEntry(0, new DirEntry(dataval, blk.number()));
+         overflow = false;
+      }
+      finish(leaf, leafblk);
+      leaf = page;
+      leafblk = blk;
+   }
+
+   /**
+    * Adds a directory entry to the specified level.
+    * If the level already holds a page's worth of entries,
+    * they are first written to a new directory block,
+    * whose entry is added to the next level.
+    */
+   private void addEntry(int level, DirEntry e) {
+      List<DirEntry> entries = levels.get(level);
+      if (entries.size() == dircapacity)
+         writeDirPage(level, entries);
+      entries.add(e);
+   }
+
+   private void writeDirPage(int level, List<DirEntry> entries) {
+      BlockId blk = tx.append(dirtbl);
+      BTPage page = beginPage(blk, dirLayout, level);
+      for (int i=0; i<entries.size(); i++)
+         page.insertDir(i, entries.get(i).dataVal(), entries.get(i).blockNumber());
+      finish(page, blk);
+      if (level == levels.size() - 1)
+         levels.add(new ArrayList<>());
+      addEntry(level+1, new DirEntry(entries.get(0).dataVal(), blk.number()));
+      entries.clear();
+   }
+
+   private void writeRoot(int level, List<DirEntry> entries) {
+      BTPage root = new BTPage(tx, new BlockId(dirtbl, 0), dirLayout);
+      root.delete(0);
+      for (int i=0; i<entries.size(); i++)
+         root.insertDir(i, entries.get(i).dataVal(), entries.get(i).blockNumber());
+      root.setFlag(level);
+      root.close();
+   }
+
+   /**
+    * Opens a page for the specified block, which has just been
+    * appended, and formats it without logging, as the beginning
+    * of a page image.
+    */
+   private BTPage beginPage(BlockId blk, Layout layout, int flag) {
+      BTPage page = new BTPage(tx, blk, layout);
+      page.disableLogging();
+      tx.beginPageImage(blk);
+      page.format(blk, flag);
+      return page;
+   }
+
+   /**
+    * Logs the image of the specified page, unless it is one of
+    * the existing blocks, whose modifications were logged.
+    */
+   private void finish(BTPage page, BlockId blk) {
+      if (blk.number() > 0)
+         tx.logPageImage(blk);
+      page.close();
+   }
+
+   private int capacity(Layout layout) {
+      int slotsize = layout.slotSize();
+      int n = 0;
+      while (2*Integer.BYTES + (n+2)*slotsize < tx.blockSize())
+         n++;
+      return n;
+   }
+}
@@ -0,0 +1,120 @@
+package simpledb.index.btree;
+
+import java.util.*;
+import simpledb.log.LogMgr;
+import simpledb.query.Constant;
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+public class BTreeLoaderTest {
+   private static SimpleDB db;
+   private static Layout layout;
+
+   public static void main(String[] args) {
+      db = new SimpleDB("btreeloadertest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("block");
+      sch.addIntField("id");
+      sch.addIntField("dataval");
+      layout = new Layout(sch);
+
+      // the keys in order; every seventh key has enough
+      // duplicates to need overflow blocks
+      List<Integer> keys = new ArrayList<>();
+      for (int k=0; k<500; k++) {
+         int dups = (k % 7 == 0) ? 60 : k % 3 + 1;
+         for (int i=0; i<dups; i++)
+            keys.add(k);
+      }
+
+      // the same records, inserted one at a time and loaded
+      LogMgr lm = db.logMgr();
+      int start = lm.latestLSN();
+      Transaction tx = db.newTx();
+      BTreeIndex idx = new BTreeIndex(tx, "inserted", layout);
+      for (int i=0; i<keys.size(); i++)
+         idx.insert(new Constant(keys.get(i)), new RID(i, 0));
+      idx.close();
+      tx.commit();
+      int inserted = lm.latestLSN() - start;
+
+      start = lm.latestLSN();
+      tx = db.newTx();
+      idx = new BTreeIndex(tx, "loaded", layout);
+      BTreeLoader loader = idx.loader();
+      for (int i=0; i<keys.size(); i++)
+         loader.insert(new Constant(keys.get(i)), new RID(i, 0));
+      loader.close();
+      idx.close();
+      tx.commit();
+      int loaded = lm.latestLSN() - start;
+      System.out.println(keys.size() + " index records: " + inserted + " log bytes inserted, "
+            + loaded + " loaded");
+      System.out.println("same records: " + sameRecords("inserted", "loaded", 500)
+            + "; leaf blocks: " + size("insertedleaf") + " inserted, " + size("loadedleaf") + " loaded");
+
+      // a loaded index can be inserted into, and is not loaded again
+      tx = db.newTx();
+      idx = new BTreeIndex(tx, "loaded", layout);
+      idx.insert(new Constant(5000), new RID(5000, 0));
+      System.out.println("loader of a non-empty index: " + idx.loader());
+      idx.close();
+      tx.commit();
+      System.out.println("key 5000 found " + count("loaded", 5000) + " times");
+
+      // a rolled-back load leaves the index empty
+      tx = db.newTx();
+      idx = new BTreeIndex(tx, "rolledback", layout);
+      loader = idx.loader();
+      for (int i=0; i<keys.size(); i++)
+         loader.insert(new Constant(keys.get(i)), new RID(i, 0));
+      loader.close();
+      idx.close();
+      tx.rollback();
+      System.out.println("after rolling back a load, key 7 found "
+            + count("rolledback", 7) + " times");
+   }
+
+   private static boolean sameRecords(String idx1, String idx2, int numkeys) {
+      Transaction tx = db.newTx();
+      BTreeIndex i1 = new BTreeIndex(tx, idx1, layout);
+      BTreeIndex i2 = new BTreeIndex(tx, idx2, layout);
+      boolean same = true;
+      int n = 0;
+      for (int k=0; k<numkeys; k++) {
+         Set<String> rids = rids(i1, k);
+         same = same && rids.equals(rids(i2, k));
+         n += rids.size();
+      }
+      System.out.println(n + " records found in each");
+      i1.close();
+      i2.close();
+      tx.commit();
+      return same;
+   }
+
+   private static Set<String> rids(BTreeIndex idx, int key) {
+      Set<String> result = new TreeSet<>();
+      idx.beforeFirst(new Constant(key));
+      while (idx.next())
+         result.add(idx.getDataRid().toString());
+      return result;
+   }
+
+   private static int count(String idxname, int key) {
+      Transaction tx = db.newTx();
+      BTreeIndex idx = new BTreeIndex(tx, idxname, layout);
+      int n = rids(idx, key).size();
+      idx.close();
+      tx.commit();
+      return n;
+   }
+
+   private static int size(String filename) {
+      Transaction tx = db.newTx();
+      int n = tx.size(filename);
+      tx.commit();
+      return n;
+   }
+}
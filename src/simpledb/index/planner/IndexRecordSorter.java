@@ -0,0 +1,119 @@
+package simpledb.index.planner;
+
+import static java.sql.Types.INTEGER;
+import java.util.*;
+import java.util.function.BiConsumer;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.*;
+import simpledb.parse.*;
+import simpledb.materialize.*;
+
+/**
+ * Sorts the index records of a bulk load by their key values,
+ * holding a bounded number of them in memory.
+ * The records are collected {@value #RUN_SIZE} at a time;
+ * each batch is sorted and written to a temporary table as a run.
+ * The runs are merged two at a time, as a {@link SortPlan} merges
+ * its runs, until two are left, which are merged as they are read.
+ * If all of the records fit in a single batch,
+ * they are sorted in memory and never written.
+ */
+class IndexRecordSorter {
+   private static final int RUN_SIZE = 10000;
+   private Transaction tx;
+   private Schema sch = new Schema();
+   private RecordComparator comp;
+   private List<Map.Entry<Constant,RID>> batch = new ArrayList<>();
+   private List<TempTable> runs = new ArrayList<>();
+
+   /**
+    * Creates a sorter for the index records of the specified field.
+    * @param tx the calling transaction
+    * @param tblsch the schema of the indexed table
+    * @param fldname the indexed field
+    */
+   IndexRecordSorter(Transaction tx, Schema tblsch, String fldname) {
+      this.tx = tx;
+      sch.addIntField("block");
+      sch.addIntField("id");
+      if (tblsch.type(fldname) == INTEGER)
+         sch.addIntField("dataval");
+      else
+         sch.addStringField("dataval", tblsch.length(fldname));
+      comp = new RecordComparator(new OrderData(Arrays.asList(new Pair("dataval", true))));
+   }
+
+   /**
+    * Adds an index record, writing out the current batch
+    * as a run if it is full.
+    * @param dataval the key of the record
+    * @param datarid the dataRID of the record
+    */
+   void add(Constant dataval, RID datarid) {
+      batch.add(new AbstractMap.SimpleEntry<>(dataval, datarid));
+      if (batch.size() == RUN_SIZE)
+         writeRun();
+   }
+
+   /**
+    * Passes each index record to the specified action,
+    * in key order.
+    * @param action the action that receives the records
+    */
+   void forEach(BiConsumer<Constant,RID> action) {
+      if (runs.isEmpty()) {
+         batch.sort(Map.Entry.comparingByKey());
+         for (Map.Entry<Constant,RID> e : batch)
+            action.accept(e.getKey(), e.getValue());
+         return;
+      }
+      if (!batch.isEmpty())
+         writeRun();
+      while (runs.size() > 2) {
+         List<TempTable> merged = new ArrayList<>();
+         for (int i=0; i+1<runs.size(); i+=2)
+            merged.add(mergeTwoRuns(runs.get(i), runs.get(i+1)));
+         if (runs.size() % 2 == 1)
+            merged.add(runs.get(runs.size()-1));
+         runs = merged;
+      }
+      Scan s = new SortScan(runs, comp);
+      try {
+         while (s.next())
+            action.accept(s.getVal("dataval"), new RID(s.getInt("block"), s.getInt("id")));
+      }
+      finally {
+         s.close();
+      }
+   }
+
+   private void writeRun() {
+      batch.sort(Map.Entry.comparingByKey());
+      TempTable run = new TempTable(tx, sch);
+      UpdateScan dest = run.open();
+      for (Map.Entry<Constant,RID> e : batch) {
+         dest.insert();
+         dest.setVal("dataval", e.getKey());
+         dest.setInt("block", e.getValue().blockNumber());
+         dest.setInt("id", e.getValue().slot());
+      }
+      dest.close();
+      runs.add(run);
+      batch.clear();
+   }
+
+   private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
+      Scan src = new SortScan(Arrays.asList(p1, p2), comp);
+      TempTable result = new TempTable(tx, sch);
+      UpdateScan dest = result.open();
+      while (src.next()) {
+         dest.insert();
+         for (String fldname : sch.fields())
+            dest.setVal(fldname, src.getVal(fldname));
+      }
+      src.close();
+      dest.close();
+      return result;
+   }
+}
@@ -8,6 +8,7 @@ import simpledb.query.*;
 import simpledb.parse.*;
 import simpledb.plan.*;
 import simpledb.index.Index;
+import simpledb.index.btree.*;
 
 /**
  * A modification of the basic update planner.
@@ -49,6 +50,74 @@ public class IndexUpdatePlanner implements UpdatePlanner {
       return 1;
    }
    
+   /**
+    * Loads the records of the file through a table loader.
+    * The index records are not inserted as each record is loaded,
+    * but are collected and sorted by key, spilling to temporary
+    * runs if there are many of them.
+    * An empty B-tree index is then built bottom-up from the sorted
+    * records by a {@link BTreeLoader}, which logs the images of
+    * the pages it fills instead of each insertion.
+    * The sorted records of any other index are inserted one at
+    * a time, so that consecutive insertions visit the same blocks,
+    * which are still in the buffer pool.
+    */
+   public int executeLoad(LoadData data, Transaction tx) {
+      String tblname = data.tableName();
+      Layout layout = mdm.getLayout(tblname, tx);
+      Map<String,IndexInfo> indexes = mdm.getIndexInfo(tblname, tx);
+      Map<String,IndexRecordSorter> sorters = new HashMap<>();
+      for (String fldname : indexes.keySet())
+         sorters.put(fldname, new IndexRecordSorter(tx, layout.schema(), fldname));
+
+      // first, load the records
+      LoadData.Records records = data.records(layout.schema());
+      int count = 0;
+      try {
+         TableLoader loader = new TableLoader(tx, tblname, layout);
+         try {
+            while (records.hasNext()) {
+               loader.insert();
+               RID rid = loader.getRid();
+               Iterator<Constant> valIter = records.next().iterator();
+               for (String fldname : data.fields()) {
+                  Constant val = valIter.next();
+                  loader.setVal(fldname, val);
+                  IndexRecordSorter sorter = sorters.get(fldname);
+                  if (sorter != null)
+                     sorter.add(val, rid);
+               }
+               count++;
+            }
+         }
+         finally {
+            loader.close();
+         }
+      }
+      finally {
+         records.close();
+      }
+
+      // then build or insert into each index, in key order
+      for (String fldname : indexes.keySet()) {
+         IndexRecordSorter sorter = sorters.get(fldname);
+         Index idx = indexes.get(fldname).open();
+         BTreeLoader btloader = (idx instanceof BTreeIndex) ? ((BTreeIndex)idx).loader() : null;
+         if (btloader != null) {
+            try {
+               sorter.forEach(btloader::insert);
+            }
+            finally {
+               btloader.close();
+            }
+         }
+         else
+            sorter.forEach(idx::insert);
+         idx.close();
+      }
+      return count;
+   }
+
    public int executeDelete(DeleteData data, Transaction tx) {
       String tblname = data.tableName();
       Plan p = new TablePlan(tx, tblname, mdm);
@@ -105,7 +174,7 @@ public class IndexUpdatePlanner implements UpdatePlanner {
    }
    
    public int executeCreateTable(CreateTableData data, Transaction tx) {
-      mdm.createTable(data.tableName(), data.newSchema(), tx);
+      mdm.createTable(data.tableName(), data.newSchema(), data.format(), tx);
       return 0;
    }
    
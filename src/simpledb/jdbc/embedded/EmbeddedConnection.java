@@ -15,6 +15,7 @@ class EmbeddedConnection extends ConnectionAdapter {
    private SimpleDB db;
    private Transaction currentTx;
    private Planner planner;
+   private boolean readOnly = false;
 
    /**
     * Creates a connection
@@ -46,7 +47,7 @@ class EmbeddedConnection extends ConnectionAdapter {
     */
    public void commit() throws SQLException {
       currentTx.commit();
-      currentTx = db.newTx();
+      currentTx = newTx();
    }
 
    /**
@@ -54,7 +55,29 @@ class EmbeddedConnection extends ConnectionAdapter {
     */
    public void rollback() throws SQLException {
       currentTx.rollback();
-      currentTx = db.newTx();
+      currentTx = newTx();
+   }
+
+   /**
+    * Puts the connection in read-only mode, or takes it out.
+    * The transactions of a read-only connection read from
+    * a snapshot of the database, take no locks, and write
+    * nothing to the log, so that queries cost no log I/O.
+    * Changing the mode commits the current transaction
+    * and begins a new one of the requested kind.
+    */
+   public void setReadOnly(boolean readOnly) throws SQLException {
+      if (readOnly == this.readOnly)
+         return;
+      this.readOnly = readOnly;
+      commit();
+   }
+
+   /**
+    * Returns true if the connection is in read-only mode.
+    */
+   public boolean isReadOnly() throws SQLException {
+      return readOnly;
    }
 
    /**
@@ -65,5 +88,9 @@ class EmbeddedConnection extends ConnectionAdapter {
    Transaction getTransaction() {  
       return currentTx;
    }
+
+   private Transaction newTx() {
+      return readOnly ? db.newSnapshotTx() : db.newTx();
+   }
 }
 
@@ -16,6 +16,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
    private SimpleDB db;
    private Transaction currentTx;
    private Planner planner;
+   private boolean readOnly = false;
    
    /**
     * Creates a remote connection
@@ -44,6 +45,30 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
    public void close() throws RemoteException {
       currentTx.commit();
    }
+
+   /**
+    * Puts the connection in read-only mode, or takes it out.
+    * The transactions of a read-only connection read from
+    * a snapshot of the database, take no locks, and write
+    * nothing to the log.
+    * Changing the mode commits the current transaction
+    * and begins a new one of the requested kind.
+    * @see simpledb.jdbc.network.RemoteConnection#setReadOnly(boolean)
+    */
+   public void setReadOnly(boolean readOnly) throws RemoteException {
+      if (readOnly == this.readOnly)
+         return;
+      this.readOnly = readOnly;
+      commit();
+   }
+
+   /**
+    * Returns true if the connection is in read-only mode.
+    * @see simpledb.jdbc.network.RemoteConnection#isReadOnly()
+    */
+   public boolean isReadOnly() throws RemoteException {
+      return readOnly;
+   }
    
 // The following methods are used by the server-side classes.
    
@@ -62,7 +87,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
     */
    void commit() {
       currentTx.commit();
-      currentTx = db.newTx();
+      currentTx = newTx();
    }
    
    /**
@@ -71,7 +96,11 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
     */
    void rollback() {
       currentTx.rollback();
-      currentTx = db.newTx();
+      currentTx = newTx();
+   }
+
+   private Transaction newTx() {
+      return readOnly ? db.newSnapshotTx() : db.newTx();
    }
 }
 
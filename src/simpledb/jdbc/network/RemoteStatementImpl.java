@@ -1,9 +1,11 @@
 package simpledb.jdbc.network;
 
+import simpledb.server.SimpleDB;
 import simpledb.plan.Plan;
 import simpledb.plan.Planner;
 import simpledb.tx.Transaction;
 
+import java.io.File;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 
@@ -44,12 +46,16 @@ class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement
     * Executes the specified SQL update command.
     * The method sends the command to the update planner,
     * which executes it.
+    * A copy statement may only read files in the directory
+    * named by {@link SimpleDB#IMPORT_DIR}, and none if it is null,
+    * so that clients cannot read arbitrary files on the server.
     * @see simpledb.jdbc.network.RemoteStatement#executeUpdate(java.lang.String)
     */
    public int executeUpdate(String cmd) throws RemoteException {
       try {
          Transaction tx = rconn.getTransaction();
-         int result = planner.executeUpdate(cmd, tx);
+         File importdir = (SimpleDB.IMPORT_DIR == null) ? null : new File(SimpleDB.IMPORT_DIR);
+         int result = planner.executeUpdate(cmd, tx, importdir);
          rconn.commit();
          return result;
       }
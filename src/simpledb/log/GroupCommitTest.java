@@ -0,0 +1,38 @@
+package simpledb.log;
+
+import java.io.File;
+import simpledb.file.*;
+
+public class GroupCommitTest {
+   private static final int NUM_THREADS = 8;
+   private static final int COMMITS_PER_THREAD = 200;
+
+   public static void main(String[] args) throws Exception {
+      FileMgr fm = new FileMgr(new File("groupcommittest"), 400);
+      for (long groupwait : new long[] {0, 200, 1000}) {
+         LogMgr lm = new LogMgr(fm, "groupcommit" + groupwait + ".log", groupwait);
+         Thread[] threads = new Thread[NUM_THREADS];
+         for (int t=0; t<NUM_THREADS; t++) {
+            threads[t] = new Thread(() -> {
+               for (int i=0; i<COMMITS_PER_THREAD; i++) {
+                  byte[] rec = new byte[2*Integer.BYTES];
+                  Page p = new Page(rec);
+                  p.setInt(0, i);
+                  int lsn = lm.append(rec);
+                  lm.flushCommit(lsn);
+               }
+            });
+         }
+         long start = System.currentTimeMillis();
+         for (Thread th : threads)
+            th.start();
+         for (Thread th : threads)
+            th.join();
+         long elapsed = System.currentTimeMillis() - start;
+         System.out.println("group wait " + groupwait + "us: "
+               + lm.commits() + " commits, " + lm.syncs() + " log writes, "
+               + String.format("%.2f", lm.commitsPerSync()) + " commits per write, "
+               + elapsed + " ms");
+      }
+   }
+}
@@ -6,26 +6,49 @@ import simpledb.file.*;
 /**
  * A class that provides the ability to move through the
  * records of the log file in reverse order.
- * 
+ * Blocks are read a chunk at a time, using a single
+ * read of the segment file for each chunk.
+ * While the iterator is open, the log manager does not
+ * remove any segment; the iterator closes itself once it
+ * has returned the earliest record, and a caller that
+ * stops earlier must close it.
+ *
  * @author Edward Sciore
  */
-class LogIterator implements Iterator<byte[]> {
+public class LogIterator implements Iterator<byte[]> {
+   private static final int CHUNK_BLOCKS = 32;
+   private LogMgr lm;
    private FileMgr fm;
-   private BlockId blk;
-   private Page p;
+   private int blocksize;
+   private int segmentBlocks;
+   private int chunkblocks;
+   private int firstblknum;
+   private int blknum;
+   private Page chunk;
+   private int chunkfirst = -1, chunklast = -1;
+   private int base;
    private int currentpos;
    private int boundary;
+   private int lsn = -1;
+   private boolean open = true;
 
    /**
     * Creates an iterator for the records in the log file,
     * positioned after the last log record.
+    * @param blknum the position of the last block in the log
+    * @param firstblknum the position of the earliest block in the log
+    * @param segmentBlocks the number of blocks in each segment
     */
-   public LogIterator(FileMgr fm, BlockId blk) {
+   LogIterator(LogMgr lm, FileMgr fm, int blknum, int firstblknum, int segmentBlocks) {
+      this.lm = lm;
       this.fm = fm;
-      this.blk = blk;
-      byte[] b = new byte[fm.blockSize()];
-      p = new Page(b);
-      moveToBlock(blk);
+      this.blknum = blknum;
+      this.firstblknum = firstblknum;
+      this.segmentBlocks = segmentBlocks;
+      blocksize = fm.blockSize();
+      chunkblocks = Math.min(CHUNK_BLOCKS, segmentBlocks);
+      chunk = new Page(new byte[chunkblocks * blocksize]);
+      moveToBlock(blknum);
    }
 
    /**
@@ -34,7 +57,21 @@ class LogIterator implements Iterator<byte[]> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentpos<fm.blockSize() || blk.number()>0;
+      boolean more = currentpos<blocksize || blknum>firstblknum;
+      if (!more)
+         close();
+      return more;
+   }
+
+   /**
+    * Closes the iterator, allowing the log manager
+    * to remove the segments that it was reading.
+    */
+   public void close() {
+      if (open) {
+         open = false;
+         lm.iteratorClosed();
+      }
    }
 
    /**
@@ -45,23 +82,42 @@ class LogIterator implements Iterator<byte[]> {
     * @return the next earliest log record
     */
    public byte[] next() {
-      if (currentpos == fm.blockSize()) {
-         blk = new BlockId(blk.fileName(), blk.number()-1);
-         moveToBlock(blk);
+      if (currentpos == blocksize) {
+         blknum--;
+         moveToBlock(blknum);
       }
-      byte[] rec = p.getBytes(currentpos);
+      lsn = lm.lsn(blknum, currentpos);
+      byte[] rec = chunk.getBytes(base + currentpos);
       currentpos += Integer.BYTES + rec.length;
       return rec;
    }
 
+   /**
+    * Returns the LSN of the record most recently
+    * returned by {@link #next()}.
+    * @return the LSN of the current log record
+    */
+   public int lsn() {
+      return lsn;
+   }
+
    /**
     * Moves to the specified log block
     * and positions it at the first record in that block
     * (i.e., the most recent one).
+    * If the block is not in the current chunk, then
+    * the chunk ending with that block is read;
+    * a chunk never extends before the start of its segment.
     */
-   private void moveToBlock(BlockId blk) {
-      fm.read(blk, p);
-      boundary = p.getInt(0);
+   private void moveToBlock(int blknum) {
+      if (blknum < chunkfirst || blknum > chunklast) {
+         int segstart = blknum - blknum % segmentBlocks;
+         chunkfirst = Math.max(segstart, blknum - chunkblocks + 1);
+         chunklast = blknum;
+         lm.readBlocks(chunkfirst, chunk);
+      }
+      base = (blknum - chunkfirst) * blocksize;
+      boundary = chunk.getInt(base);
       currentpos = boundary;
    }
 }
@@ -1,6 +1,7 @@
 package simpledb.log;
 
-import java.util.Iterator;
+import java.io.File;
+import java.util.*;
 import simpledb.file.*;
 
 /**
@@ -8,51 +9,343 @@ import simpledb.file.*;
  * writing log records into a log file. The tail of 
  * the log is kept in a bytebuffer, which is flushed
  * to disk when needed. 
+ * Flushes are shared (group commit): while one thread
+ * writes the log tail, other threads needing a flush wait,
+ * and are released if that write covered their records.
+ * The flushing thread writes a copy of the tail block, without
+ * holding the log manager's lock, so that other threads keep
+ * appending records to the tail while the copy is forced to disk;
+ * the next flush then writes all of them at once.
+ * The LSN of a record is its address in the log
+ * (the number of bytes that precede its end),
+ * so LSNs keep increasing across restarts and
+ * can be stored in data pages.
+ * <p>
+ * The log is stored in a sequence of segment files, each holding
+ * a fixed number of blocks; segment n of the log "simpledb.log"
+ * is the file "simpledb.log.n".
+ * Once a checkpoint makes the records of a segment unnecessary,
+ * the segment is deleted, or moved to an archive directory.
  * @author Edward Sciore
  */
 public class LogMgr {
+   public static final int DEFAULT_SEGMENT_BLOCKS = 256;
    private FileMgr fm;
    private String logfile;
+   private int segmentBlocks;
+   private File archiveDir = null;
    private Page logpage;
-   private BlockId currentblk;
+   private int currentblknum; // the position of the current block in the log
+   private BlockId currentblk; // the location of that block in its segment
+   private int firstblknum; // the earliest block that has not been removed
    private int latestLSN = 0;
    private int lastSavedLSN = 0;
+   private boolean flushing = false;
+   private int waiters = 0; // threads waiting for a flush in progress
+   private int openIterators = 0;
+   private long groupWait;
+   private long commits = 0, syncs = 0;
 
    /**
     * Creates the manager for the specified log file.
     * If the log file does not yet exist, it is created
-    * with an empty first block.
+    * with an empty first block, and segments of the
+    * default size.
     * @param FileMgr the file manager
     * @param logfile the name of the log file
     */
    public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, 0);
+   }
+
+   /**
+    * Creates the manager for the specified log file,
+    * in which a thread that is about to flush the log
+    * first waits up to the specified time for other
+    * records to be appended, so that they are written
+    * with the same flush.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log file
+    * @param groupWait the maximum wait, in microseconds
+    */
+   public LogMgr(FileMgr fm, String logfile, long groupWait) {
+      this(fm, logfile, groupWait, DEFAULT_SEGMENT_BLOCKS);
+   }
+
+   /**
+    * Creates the manager for the specified log file,
+    * whose segments hold the specified number of blocks.
+    * The segment size of an existing log must not be changed.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log file
+    * @param groupWait the maximum wait, in microseconds
+    * @param segmentBlocks the number of blocks in each segment
+    */
+   public LogMgr(FileMgr fm, String logfile, long groupWait, int segmentBlocks) {
       this.fm = fm;
       this.logfile = logfile;
+      this.groupWait = groupWait;
+      this.segmentBlocks = segmentBlocks;
       byte[] b = new byte[fm.blockSize()];
       logpage = new Page(b);
-      int logsize = fm.length(logfile);
+      if (fm.fileNames(logfile).contains(logfile))
+         throw new RuntimeException("found " + logfile + ", a log file in the format "
+               + "that preceded log segments; it cannot be read, so recover the database "
+               + "with the version that wrote it and remove the file");
+      List<Integer> segments = segments();
+      int lastseg = 0;
+      int logsize = 0;
+      if (!segments.isEmpty()) {
+         firstblknum = segments.get(0) * segmentBlocks;
+         lastseg = segments.get(segments.size()-1);
+         logsize = fm.length(segmentName(lastseg));
+      }
+      currentblknum = lastseg * segmentBlocks + logsize - 1;
       if (logsize == 0)
-         currentblk = appendNewBlock();
+         appendNewBlock();
       else {
-         currentblk = new BlockId(logfile, logsize-1);
+         currentblk = blockFor(currentblknum);
          fm.read(currentblk, logpage);
+         // a crash may have extended the file before its
+         // new last block was initialized
+         if (logpage.getInt(0) == 0) {
+            logpage.setInt(0, fm.blockSize());
+            fm.write(currentblk, logpage);
+         }
       }
+      latestLSN = lsn(currentblknum, logpage.getInt(0));
+      lastSavedLSN = latestLSN;
+   }
+
+   /**
+    * Specifies a directory to which segments are moved
+    * when they are no longer needed.
+    * By default they are deleted.
+    * @param dir the archive directory, or null to delete segments
+    */
+   public synchronized void setArchiveDirectory(File dir) {
+      archiveDir = dir;
+   }
+
+   /**
+    * Removes the segments whose records are all older than
+    * the specified LSN, moving them to the archive directory
+    * if there is one.
+    * The segment holding the tail of the log is never removed,
+    * and no segment is removed while a log iterator is open,
+    * since it may still read any of them;
+    * a later truncation removes them instead.
+    * @param lsn the earliest LSN that must be kept
+    */
+   public synchronized void truncate(int lsn) {
+      if (openIterators > 0)
+         return;
+      int keepseg = Math.min(lsn / fm.blockSize(), currentblknum) / segmentBlocks;
+      for (int seg = firstblknum / segmentBlocks; seg < keepseg; seg++)
+         fm.remove(segmentName(seg), archiveDir);
+      firstblknum = Math.max(firstblknum, keepseg * segmentBlocks);
+   }
+
+   /**
+    * Returns the LSN of the record that begins at the
+    * specified position of the specified log block.
+    * Since records are written right to left, the LSN
+    * increases as the position decreases.
+    * An empty block has the LSN of the end of the previous block.
+    * LSNs are ints, which limits the log to 2GB;
+    * once that much has been written, the log refuses
+    * records that need a new block.
+    * @param blknum the position of the block in the log
+    * @param pos the position of the record in the block
+    * @return the LSN of the record
+    */
+   int lsn(int blknum, int pos) {
+      int blocksize = fm.blockSize();
+      return blknum * blocksize + (blocksize - pos);
+   }
+
+   /**
+    * Returns the location of the specified log block,
+    * that is, its segment file and its number in that file.
+    * @param blknum the position of the block in the log
+    * @return the block of the segment file
+    */
+   BlockId blockFor(int blknum) {
+      return new BlockId(segmentName(blknum / segmentBlocks), blknum % segmentBlocks);
+   }
+
+   /**
+    * Returns the LSN of the most recently appended log record.
+    * @return the latest LSN
+    */
+   public synchronized int latestLSN() {
+      return latestLSN;
    }
 
    /**
     * Ensures that the log record corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * If another thread is already flushing the log, then
+    * this thread waits for it, and flushes only if that
+    * flush did not include the record.
+    * The thread waits for other records to be appended only if
+    * no other thread is waiting to flush, since otherwise the
+    * records appended during the previous flush already form a group.
+    * The lock is released while the tail is written and forced,
+    * so the block written is a copy of the tail, and it holds
+    * every record appended up to the time of the copy.
     * @param lsn the LSN of a log record
     */
    public void flush(int lsn) {
-      if (lsn >= lastSavedLSN)
-         flush();
+      try {
+         while (true) {
+            Page tail;
+            BlockId blk;
+            int target;
+            synchronized(this) {
+               waiters++;
+               try {
+                  while (flushing && lsn > lastSavedLSN)
+                     wait();
+               }
+               finally {
+                  waiters--;
+               }
+               if (lsn <= lastSavedLSN)
+                  return;
+               flushing = true;
+               try {
+                  if (waiters == 0)
+                     waitForGroup();
+               }
+               catch(InterruptedException e) {
+                  flushing = false;
+                  notifyAll();
+                  throw e;
+               }
+               tail = new Page(logpage);
+               blk = currentblk;
+               target = latestLSN;
+            }
+            boolean written = false;
+            try {
+               fm.write(blk, tail);
+               fm.sync(blk.fileName());
+               written = true;
+            }
+            finally {
+               synchronized(this) {
+                  if (written) {
+                     lastSavedLSN = Math.max(lastSavedLSN, target);
+                     syncs++;
+                  }
+                  flushing = false;
+                  notifyAll();
+               }
+            }
+         }
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("interrupted while flushing the log");
+      }
+   }
+
+   /**
+    * Ensures that the specified commit record has been
+    * written to disk, counting the commit for the
+    * group commit statistics.
+    * @param lsn the LSN of a commit record
+    */
+   public void flushCommit(int lsn) {
+      synchronized(this) {
+         commits++;
+      }
+      flush(lsn);
+   }
+
+   /**
+    * Returns the number of commits that have been flushed.
+    * @return the number of commits
+    */
+   public synchronized long commits() {
+      return commits;
+   }
+
+   /**
+    * Returns the number of times the log tail has been
+    * written to disk.
+    * @return the number of log writes
+    */
+   public synchronized long syncs() {
+      return syncs;
+   }
+
+   /**
+    * Returns the average number of commits covered by
+    * each write of the log tail.
+    * @return the number of commits per log write
+    */
+   public synchronized double commitsPerSync() {
+      return (syncs == 0) ? 0.0 : (double) commits / syncs;
+   }
+
+   /**
+    * Returns the log record having the specified LSN.
+    * Since an LSN is the address of its record,
+    * the record is read directly from its block,
+    * or from the log buffer if it has not yet been written.
+    * @param lsn the LSN of a log record
+    * @return the bytes of the record
+    */
+   public synchronized byte[] read(int lsn) {
+      int blocksize = fm.blockSize();
+      int blknum = lsn / blocksize;
+      int pos = blocksize - (lsn - blknum * blocksize);
+      if (blknum == currentblknum)
+         return logpage.getBytes(pos);
+      if (blknum < firstblknum)
+         throw new RuntimeException("log record " + lsn + " has been truncated");
+      Page p = new Page(new byte[blocksize]);
+      fm.read(blockFor(blknum), p);
+      return p.getBytes(pos);
    }
 
-   public Iterator<byte[]> iterator() {
+   /**
+    * Returns an iterator that moves backwards through
+    * the log records, from the most recent one.
+    * The tail of the log is first written to disk.
+    * No segment is removed until the iterator is closed.
+    * @return an iterator over the log records
+    */
+   public synchronized LogIterator iterator() {
+      awaitFlush();
       flush();
-      return new LogIterator(fm, currentblk);
+      openIterators++;
+      return new LogIterator(this, fm, currentblknum, firstblknum, segmentBlocks);
+   }
+
+   /**
+    * Reads consecutive log blocks, beginning with the specified one,
+    * into the page, for an iterator.
+    * The read is synchronized with truncation, so a removed segment
+    * is never read, which would create it again.
+    * @param blknum the position of the first block in the log
+    * @param p the page, whose size is a multiple of the block size
+    */
+   synchronized void readBlocks(int blknum, Page p) {
+      if (blknum < firstblknum)
+         throw new RuntimeException("log block " + blknum + " has been truncated");
+      fm.readBlocks(blockFor(blknum), p);
+   }
+
+   /**
+    * Records that an iterator has been closed,
+    * so that truncation may remove segments again
+    * once no iterator is open.
+    */
+   synchronized void iteratorClosed() {
+      openIterators--;
    }
 
    /**
@@ -72,33 +365,101 @@ public class LogMgr {
       int recsize = logrec.length;
       int bytesneeded = recsize + Integer.BYTES;
       if (boundary - bytesneeded < Integer.BYTES) { // the log record doesn't fit,
-         flush();        // so move to the next block.
-         currentblk = appendNewBlock();
+         awaitFlush();   // so let a flush of the old copy finish,
          boundary = logpage.getInt(0);
+         if (boundary - bytesneeded < Integer.BYTES) {
+            flush();     // and move to the next block,
+            appendNewBlock();
+            boundary = logpage.getInt(0);
+         }               // unless another thread already did.
       }
       int recpos = boundary - bytesneeded;
 
       logpage.setBytes(recpos, logrec);
       logpage.setInt(0, recpos); // the new boundary
-      latestLSN += 1;
+      latestLSN = lsn(currentblknum, recpos);
       return latestLSN;
    }
 
    /**
-    * Initialize the bytebuffer and append it to the log file.
+    * Initialize the bytebuffer and append it to the log,
+    * starting a new segment if the current one is full.
+    * A block whose last LSN would not fit in an int is refused,
+    * because its records could not be addressed;
+    * LSNs would overflow, and become smaller than
+    * the LSNs of earlier records.
     */
-   private BlockId appendNewBlock() {
-      BlockId blk = fm.append(logfile);     
+   private void appendNewBlock() {
+      if ((long) (currentblknum + 2) * fm.blockSize() > Integer.MAX_VALUE)
+         throw new RuntimeException("log is full: LSNs cannot address more than "
+               + Integer.MAX_VALUE + " bytes");
+      currentblknum++;
+      currentblk = fm.append(segmentName(currentblknum / segmentBlocks));
       logpage.setInt(0, fm.blockSize());
-      fm.write(blk, logpage);
-      return blk;
+      fm.write(currentblk, logpage);
+   }
+
+   private String segmentName(int seg) {
+      return logfile + "." + seg;
+   }
+
+   /**
+    * Returns the numbers of the existing segments, in order.
+    */
+   private List<Integer> segments() {
+      List<Integer> segments = new ArrayList<>();
+      String prefix = logfile + ".";
+      for (String filename : fm.fileNames(prefix)) {
+         try {
+            segments.add(Integer.parseInt(filename.substring(prefix.length())));
+         }
+         catch(NumberFormatException e) {
+            // not a segment of this log
+         }
+      }
+      Collections.sort(segments);
+      return segments;
+   }
+
+   /**
+    * Release the lock for up to the group wait time,
+    * so that other threads can append records
+    * to be written by the coming flush.
+    */
+   private void waitForGroup() throws InterruptedException {
+      long deadline = System.nanoTime() + groupWait * 1000;
+      long remaining = deadline - System.nanoTime();
+      while (remaining > 0) {
+         wait(remaining / 1000000, (int) (remaining % 1000000));
+         remaining = deadline - System.nanoTime();
+      }
+   }
+
+   /**
+    * Wait until no thread is writing a copy of the tail,
+    * so that the tail can be written directly without
+    * an older copy overwriting it on disk.
+    */
+   private void awaitFlush() {
+      try {
+         while (flushing)
+            wait();
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("interrupted while flushing the log");
+      }
    }
 
    /**
-    * Write the buffer to the log file.
+    * Write the buffer to the log file,
+    * and force it to the disk.
+    * The caller must hold the lock, and no
+    * other thread may be flushing.
     */
    private void flush() {
       fm.write(currentblk, logpage);
+      fm.sync(currentblk.fileName());
       lastSavedLSN = latestLSN;
+      syncs++;
    }
 }
@@ -50,12 +50,25 @@ class TableMgr {
     * @param tx the transaction creating the table
     */
    public void createTable(String tblname, Schema sch, Transaction tx) {
-      Layout layout = new Layout(sch);
+      createTable(tblname, sch, Layout.FIXED, tx);
+   }
+
+   /**
+    * Create a new table having the specified name, schema and format.
+    * A slotted table is recorded in tblcat with a slot size of 0,
+    * and a columnar table with its slot size negated.
+    * @param tblname the name of the new table
+    * @param sch the table's schema
+    * @param format the format of the table's records (see {@link Layout})
+    * @param tx the transaction creating the table
+    */
+   public void createTable(String tblname, Schema sch, int format, Transaction tx) {
+      Layout layout = new Layout(sch, format);
       // insert one record into tblcat
       TableScan tcat = new TableScan(tx, "tblcat", tcatLayout);
       tcat.insert();
       tcat.setString("tblname", tblname);
-      tcat.setInt("slotsize", layout.slotSize());
+      tcat.setInt("slotsize", layout.isColumnar() ? -layout.slotSize() : layout.slotSize());
       tcat.close();
 
       // insert a record into fldcat for each field
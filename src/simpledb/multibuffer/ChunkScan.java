@@ -33,9 +33,13 @@ public class ChunkScan implements Scan {
       this.layout = layout;
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
+      tx.sLockTable(filename);
       for (int i=startbnum; i<=endbnum; i++) {
          BlockId blk = new BlockId(filename, i);
-         buffs.add(new RecordPage(tx, blk, layout));
+         if (layout.isSlotted())
+            buffs.add(new SlottedRecordPage(tx, blk, layout));
+         else
+            buffs.add(new RecordPage(tx, blk, layout));
       }
       moveToBlock(startbnum);
    }
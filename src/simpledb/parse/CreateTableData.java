@@ -9,13 +9,16 @@ import simpledb.record.Schema;
 public class CreateTableData {
    private String tblname;
    private Schema sch;
+   private int format;
    
    /**
-    * Saves the table name and schema.
+    * Saves the table name and schema,
+    * and the format of the table's records.
     */
-   public CreateTableData(String tblname, Schema sch) {
+   public CreateTableData(String tblname, Schema sch, int format) {
       this.tblname = tblname;
       this.sch = sch;
+      this.format = format;
    }
    
    /**
@@ -33,5 +36,14 @@ public class CreateTableData {
    public Schema newSchema() {
       return sch;
    }
+   
+   /**
+    * Returns the format of the new table's records,
+    * as one of the format constants of {@link simpledb.record.Layout}.
+    * @return the format of the table
+    */
+   public int format() {
+      return format;
+   }
 }
 
@@ -206,7 +206,8 @@ public class Lexer {
       keywords = Arrays.asList("select", "from", "where", "and",
                                "insert", "into", "values", "delete", "update", "set", 
                                "create", "table", "int", "varchar", "view", "as", "index", 
-                               "on", "order", "by", "asc", "desc", "group", "distinct");
+                               "on", "order", "by", "asc", "desc", "group", "distinct",
+                               "slotted", "columnar", "copy");
    }
    
    private void initIndexKeywords() {
@@ -0,0 +1,179 @@
+package simpledb.parse;
+
+import static java.sql.Types.INTEGER;
+import java.io.*;
+import java.util.*;
+import simpledb.query.Constant;
+import simpledb.record.Schema;
+
+/**
+ * Data for the SQL <i>copy</i> statement,
+ * which loads the records of a file into a table.
+ * Each line of the file holds the values of one record,
+ * separated by commas, in the order of the field list.
+ * <p>
+ * The file is read by the server, with the server's permissions.
+ * Embedded clients run in the server's process and may name any file,
+ * but a network client may only read a file in the server's
+ * import directory; see {@link #restrictTo(File)}.
+ */
+public class LoadData {
+   private String tblname;
+   private List<String> flds;
+   private String filename;
+
+   /**
+    * Saves the table name, the field list, and the name of the file.
+    */
+   public LoadData(String tblname, List<String> flds, String filename) {
+      this.tblname = tblname;
+      this.flds = flds;
+      this.filename = filename;
+   }
+
+   /**
+    * Returns the name of the affected table.
+    * @return the name of the affected table
+    */
+   public String tableName() {
+      return tblname;
+   }
+
+   /**
+    * Returns a list of fields for which
+    * values are specified in each line of the file.
+    * @return a list of field names
+    */
+   public List<String> fields() {
+      return flds;
+   }
+
+   /**
+    * Returns the name of the file that holds the records.
+    * @return the name of the file
+    */
+   public String fileName() {
+      return filename;
+   }
+
+   /**
+    * Returns this statement with its file confined to the specified
+    * import directory, for execution on behalf of a network client.
+    * The file name is resolved against the directory, and the
+    * statement is refused if the resolved file, once symbolic links
+    * and ".." are resolved, lies outside the directory.
+    * A null directory refuses every copy statement.
+    * @param importdir the import directory, or null
+    * @return the statement, naming the resolved file
+    */
+   public LoadData restrictTo(File importdir) {
+      if (importdir == null)
+         throw new RuntimeException("copy from a file is not allowed for network clients");
+      try {
+         File dir = importdir.getCanonicalFile();
+         File file = new File(dir, filename).getCanonicalFile();
+         if (!file.toPath().startsWith(dir.toPath()))
+            throw new RuntimeException("cannot copy from " + filename
+                  + ": the file is not in the import directory");
+         return new LoadData(tblname, flds, file.getPath());
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot open " + filename);
+      }
+   }
+
+   /**
+    * Opens the file and returns its records, each as a list of values
+    * for the specified fields, converted to the types of those
+    * fields in the specified schema.
+    * The file is read one line at a time, as the records are
+    * consumed; blank lines are skipped.
+    * The caller must close the records, even if the load fails.
+    * @param sch the schema of the table
+    * @return the records of the file
+    */
+   public Records records(Schema sch) {
+      return new Records(sch);
+   }
+
+   /**
+    * The records of the input file of a copy statement.
+    */
+   public class Records implements Iterator<List<Constant>> {
+      private Schema sch;
+      private BufferedReader reader;
+      private int linenum = 0;
+      private String line;
+
+      private Records(Schema sch) {
+         this.sch = sch;
+         try {
+            reader = new BufferedReader(new FileReader(filename));
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot open " + filename);
+         }
+         try {
+            line = readLine();
+         }
+         catch (RuntimeException e) {
+            close();
+            throw e;
+         }
+      }
+
+      public boolean hasNext() {
+         return line != null;
+      }
+
+      public List<Constant> next() {
+         if (line == null)
+            throw new NoSuchElementException();
+         String[] vals = line.split(",", -1);
+         if (vals.length != flds.size())
+            throw new RuntimeException("wrong number of values in line " + linenum + " of " + filename);
+         List<Constant> record = new ArrayList<>();
+         for (int i=0; i<vals.length; i++) {
+            String val = vals[i].trim();
+            if (sch.type(flds.get(i)) == INTEGER) {
+               try {
+                  record.add(new Constant(Integer.parseInt(val)));
+               }
+               catch (NumberFormatException e) {
+                  throw new RuntimeException("bad integer in line " + linenum + " of " + filename);
+               }
+            }
+            else
+               record.add(new Constant(val));
+         }
+         line = readLine();
+         return record;
+      }
+
+      /**
+       * Closes the file.
+       */
+      public void close() {
+         try {
+            reader.close();
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot close " + filename);
+         }
+      }
+
+      private String readLine() {
+         try {
+            String s;
+            do {
+               s = reader.readLine();
+               linenum++;
+            } while (s != null && s.trim().isEmpty());
+            return s;
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot read " + filename);
+         }
+      }
+   }
+}
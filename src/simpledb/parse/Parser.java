@@ -82,6 +82,19 @@ public class Parser {
       return pred;
    }
 
+   // Method for parsing copy commands
+
+   public LoadData load() {
+      lex.eatKeyword("copy");
+      String tblname = lex.eatId();
+      lex.eatDelim('(');
+      List<String> flds = fieldList();
+      lex.eatDelim(')');
+      lex.eatKeyword("from");
+      String filename = lex.eatStringConstant();
+      return new LoadData(tblname, flds, filename);
+   }
+
    // Methods for parsing queries
 
    /**
@@ -198,6 +211,8 @@ public class Parser {
          return delete();
       else if (lex.matchKeyword("update"))
          return modify();
+      else if (lex.matchKeyword("copy"))
+         return load();
       else
          return create();
    }
@@ -306,7 +321,16 @@ public class Parser {
       lex.eatDelim('(');
       Schema sch = fieldDefs();
       lex.eatDelim(')');
-      return new CreateTableData(tblname, sch);
+      int format = Layout.FIXED;
+      if (lex.matchKeyword("slotted")) {
+         lex.eatKeyword("slotted");
+         format = Layout.SLOTTED;
+      }
+      else if (lex.matchKeyword("columnar")) {
+         lex.eatKeyword("columnar");
+         format = Layout.COLUMNAR;
+      }
+      return new CreateTableData(tblname, sch, format);
    }
 
    private Schema fieldDefs() {
@@ -1,9 +1,10 @@
 package simpledb.plan;
 
-import java.util.Iterator;
+import java.util.*;
 import simpledb.tx.Transaction;
 import simpledb.parse.*;
 import simpledb.query.*;
+import simpledb.record.*;
 import simpledb.metadata.MetadataMgr;
 
 /**
@@ -57,8 +58,38 @@ public class BasicUpdatePlanner implements UpdatePlanner {
       return 1;
    }
    
+   /**
+    * Loads the records of the file through a table loader,
+    * which logs each block of the table once it is full,
+    * instead of each value of each record.
+    */
+   public int executeLoad(LoadData data, Transaction tx) {
+      Layout layout = mdm.getLayout(data.tableName(), tx);
+      LoadData.Records records = data.records(layout.schema());
+      int count = 0;
+      try {
+         TableLoader loader = new TableLoader(tx, data.tableName(), layout);
+         try {
+            while (records.hasNext()) {
+               loader.insert();
+               Iterator<Constant> iter = records.next().iterator();
+               for (String fldname : data.fields())
+                  loader.setVal(fldname, iter.next());
+               count++;
+            }
+         }
+         finally {
+            loader.close();
+         }
+      }
+      finally {
+         records.close();
+      }
+      return count;
+   }
+   
    public int executeCreateTable(CreateTableData data, Transaction tx) {
-      mdm.createTable(data.tableName(), data.newSchema(), tx);
+      mdm.createTable(data.tableName(), data.newSchema(), data.format(), tx);
       return 0;
    }
    
@@ -1,5 +1,6 @@
 package simpledb.plan;
 
+import java.io.File;
 import simpledb.tx.Transaction;
 import simpledb.parse.*;
 
@@ -30,11 +31,13 @@ public class Planner {
    }
    
    /**
-    * Executes an SQL insert, delete, modify, or
+    * Executes an SQL insert, copy, delete, modify, or
     * create statement.
     * The method dispatches to the appropriate method of the
     * supplied update planner,
     * depending on what the parser returns.
+    * A copy statement may read any file that the server can read,
+    * so this method is meant for embedded clients.
     * @param cmd the SQL update string
     * @param tx the transaction
     * @return an integer denoting the number of affected records
@@ -43,8 +46,33 @@ public class Planner {
       Parser parser = new Parser(cmd);
       Object data = parser.updateCmd();
       verifyUpdate(data);
+      return execute(data, tx);
+   }
+
+   /**
+    * Executes an SQL update statement on behalf of a network client.
+    * A copy statement may only read a file in the specified
+    * import directory, and is refused if the directory is null.
+    * @param cmd the SQL update string
+    * @param tx the transaction
+    * @param importdir the directory of the files that may be copied, or null
+    * @return an integer denoting the number of affected records
+    * @see LoadData#restrictTo(java.io.File)
+    */
+   public int executeUpdate(String cmd, Transaction tx, File importdir) {
+      Parser parser = new Parser(cmd);
+      Object data = parser.updateCmd();
+      verifyUpdate(data);
+      if (data instanceof LoadData)
+         data = ((LoadData)data).restrictTo(importdir);
+      return execute(data, tx);
+   }
+
+   private int execute(Object data, Transaction tx) {
       if (data instanceof InsertData)
          return uplanner.executeInsert((InsertData)data, tx);
+      else if (data instanceof LoadData)
+         return uplanner.executeLoad((LoadData)data, tx);
       else if (data instanceof DeleteData)
          return uplanner.executeDelete((DeleteData)data, tx);
       else if (data instanceof ModifyData)
@@ -4,6 +4,7 @@ import simpledb.query.Predicate;
 import simpledb.query.Scan;
 import simpledb.query.SelectScan;
 import simpledb.record.Schema;
+import simpledb.record.TableScan;
 
 /** The Plan class corresponding to the <i>select</i>
   * relational algebra operator.
@@ -26,10 +27,14 @@ public class SelectPlan implements Plan {
    
    /**
     * Creates a select scan for this query.
+    * A table scan underneath is restricted to the predicate,
+    * so that it skips the blocks that its zone map rules out.
     * @see simpledb.plan.Plan#open()
     */
    public Scan open() {
       Scan s = p.open();
+      if (s instanceof TableScan)
+         ((TableScan) s).restrictTo(pred);
       return new SelectScan(s, pred);
    }
    
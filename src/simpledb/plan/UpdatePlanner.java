@@ -19,6 +19,16 @@ public interface UpdatePlanner {
     */
    public int executeInsert(InsertData data, Transaction tx);
    
+   /**
+    * Executes the specified copy statement, which loads
+    * the records of a file into a table in bulk, and
+    * returns the number of affected records.
+    * @param data the parsed representation of the copy statement
+    * @param tx the calling transaction
+    * @return the number of affected records
+    */
+   public int executeLoad(LoadData data, Transaction tx);
+   
    /**
     * Executes the specified delete statement, and
     * returns the number of affected records.
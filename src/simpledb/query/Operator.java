@@ -80,4 +80,42 @@ public class Operator {
 			throw new BadSyntaxException();					
 		}	
 	}
+	
+	/**
+	 * Determines whether the operation can hold between a constant and
+	 * some value that lies between the specified bounds.
+	 * @param low the lowest possible value
+	 * @param high the highest possible value
+	 * @param val the constant
+	 * @param valOnLeft true if the constant is the LHS of the operation
+	 * @return false if no value between the bounds satisfies the operation
+	 */
+	public boolean isSatisfiable(Constant low, Constant high, Constant val, boolean valOnLeft) {
+		operatorType type = ownType;
+		if (valOnLeft) {
+			switch (ownType) {
+			case GREATER_THAN: type = operatorType.LESS_THAN; break;
+			case LESS_THAN: type = operatorType.GREATER_THAN; break;
+			case GREATER_OR_EQUAL: type = operatorType.LESS_OR_EQUAL; break;
+			case LESS_OR_EQUAL: type = operatorType.GREATER_OR_EQUAL; break;
+			default: break;
+			}
+		}
+		switch (type) {
+		case EQUAL:
+			return low.compareTo(val) <= 0 && high.compareTo(val) >= 0;
+		case NOT_EQUAL:
+			return true;
+		case GREATER_THAN:
+			return high.compareTo(val) > 0;
+		case LESS_THAN:
+			return low.compareTo(val) < 0;
+		case LESS_OR_EQUAL:
+			return low.compareTo(val) <= 0;
+		case GREATER_OR_EQUAL:
+			return high.compareTo(val) >= 0;
+		default:
+			throw new BadSyntaxException();
+		}
+	}
 }	
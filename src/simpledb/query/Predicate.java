@@ -48,6 +48,21 @@ public class Predicate {
       return true;
    }
 
+   /**
+    * Returns false if no record whose field values lie
+    * within the specified bounds can satisfy the predicate.
+    * A field without bounds may have any value.
+    * @param low the lowest possible value of each bounded field
+    * @param high the highest possible value of each bounded field
+    * @return false if the predicate cannot be satisfied
+    */
+   public boolean isSatisfiable(Map<String,Constant> low, Map<String,Constant> high) {
+      for (Term t : terms)
+         if (!t.isSatisfiable(low, high))
+            return false;
+      return true;
+   }
+
    /** 
     * Calculate the extent to which selecting on the predicate 
     * reduces the number of records output by a query.
@@ -1,5 +1,6 @@
 package simpledb.query;
 
+import java.util.Map;
 import simpledb.plan.Plan;
 import simpledb.record.*;
 
@@ -37,6 +38,28 @@ public class Term {
       return operator.operate(lhsval, rhsval);
    }
    
+   /**
+    * Return false if the term has the form "F op c"
+    * or "c op F", and no value of F within the specified
+    * bounds can satisfy it.
+    * @param low the lowest possible value of each bounded field
+    * @param high the highest possible value of each bounded field
+    * @return false if the term cannot be satisfied
+    */
+   public boolean isSatisfiable(Map<String,Constant> low, Map<String,Constant> high) {
+      if (lhs.isFieldName() && !rhs.isFieldName()) {
+         String fldname = lhs.asFieldName();
+         return !low.containsKey(fldname) || operator.isSatisfiable(
+               low.get(fldname), high.get(fldname), rhs.asConstant(), false);
+      }
+      if (rhs.isFieldName() && !lhs.isFieldName()) {
+         String fldname = rhs.asFieldName();
+         return !low.containsKey(fldname) || operator.isSatisfiable(
+               low.get(fldname), high.get(fldname), lhs.asConstant(), true);
+      }
+      return true;
+   }
+   
    /**
     * Calculate the extent to which selecting on the term reduces 
     * the number of records output by a query.
@@ -0,0 +1,76 @@
+package simpledb.record;
+
+import simpledb.file.BlockId;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+public class ColumnarTest {
+   private static SimpleDB db;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("columnartest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 20);
+      sch.addIntField("C");
+      Layout rows = new Layout(sch);
+      Layout cols = new Layout(sch, Layout.COLUMNAR);
+
+      // both formats hold the same records in the same slots
+      load("R", rows);
+      load("P", cols);
+      Transaction tx = db.newTx();
+      TableScan rs = new TableScan(tx, "R", rows);
+      TableScan ps = new TableScan(tx, "P", cols);
+      int n = 0, diffs = 0;
+      while (rs.next() & ps.next()) {
+         n++;
+         if (!rs.getRid().equals(ps.getRid()) || rs.getInt("A") != ps.getInt("A")
+               || !rs.getString("B").equals(ps.getString("B")) || rs.getInt("C") != ps.getInt("C"))
+            diffs++;
+      }
+      System.out.println(n + " records, " + diffs + " differences; blocks: "
+            + tx.size("R.tbl") + " row, " + tx.size("P.tbl") + " columnar");
+
+      // the values of field C in block 0 are stored together,
+      // after the flags and the values of A and B
+      int slots = tx.blockSize() / cols.slotSize();
+      int start = slots * cols.offset("C");
+      BlockId blk = new BlockId("P.tbl", 0);
+      tx.pin(blk);
+      StringBuilder sb = new StringBuilder();
+      for (int slot=0; slot<slots; slot++)
+         sb.append(tx.getInt(blk, start + slot * Integer.BYTES) + " ");
+      tx.unpin(blk);
+      System.out.println("C in block 0, bytes " + start + " to "
+            + (start + slots * Integer.BYTES) + ": " + sb);
+
+      // updates, deletes and inserts work in place
+      ps.moveToRid(new RID(1, 2));
+      ps.setString("B", "updated");
+      ps.setInt("C", -1);
+      ps.delete();
+      ps.insert();
+      ps.setInt("A", 999);
+      ps.setString("B", "new");
+      ps.setInt("C", 9990);
+      System.out.println("reinserted " + ps.getRid() + ": " + ps.getInt("A")
+            + " '" + ps.getString("B") + "' " + ps.getInt("C"));
+      rs.close();
+      ps.close();
+      tx.rollback();
+   }
+
+   private static void load(String tblname, Layout layout) {
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, tblname, layout);
+      for (int i=0; i<100; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         ts.setString("B", "rec" + i);
+         ts.setInt("C", i * 10);
+      }
+      ts.close();
+      tx.commit();
+   }
+}
@@ -0,0 +1,136 @@
+package simpledb.record;
+
+import simpledb.file.BlockId;
+import simpledb.tx.Transaction;
+
+/**
+ * The free-space map of a table, which records which blocks
+ * of the table may have room for another record,
+ * so that an insertion can go straight to such a block
+ * instead of searching the table from its first block.
+ * <p>
+ * The map is stored in its own file.
+ * Its first entry is the cursor, which is the number of the
+ * first block that may have room; the blocks before it are full.
+ * It is followed by an entry for each block of the table,
+ * which is {@link #ROOM} until an insertion finds the block full,
+ * and becomes ROOM again when a record of the block is deleted.
+ * Since a file reads as zeros beyond its end, a table
+ * without a map behaves as if each of its blocks may have room,
+ * and the cursor moves past its full blocks on the first insertion.
+ * For the same reason, the blocks of the map are never appended:
+ * each is written to its place in the file when it is flushed.
+ * <p>
+ * The entries are hints: a block is searched for an empty slot
+ * before a record is inserted into it, so a wrong entry costs
+ * at most a wasted search, or a slot that is not reused.
+ * The map is therefore read and written without locks,
+ * which would make it a point of contention between all
+ * inserting transactions, and its changes are redone
+ * after a crash but are not undone by a rollback.
+ * Instead, a rollback marks each block that the transaction
+ * inserted into as having room again, since undoing
+ * the insertions freed their slots.
+ */
+class FreeSpaceMap {
+   static final int ROOM = 0, FULL = 1;
+   private Transaction tx;
+   private String filename;
+   private int entriesPerBlock;
+
+   /**
+    * Create the free-space map of the specified table.
+    * @param tx the transaction
+    * @param tblname the name of the table
+    */
+   FreeSpaceMap(Transaction tx, String tblname) {
+      this.tx = tx;
+      filename = tblname + ".fsm";
+      entriesPerBlock = tx.blockSize() / Integer.BYTES;
+   }
+
+   /**
+    * Return the first block of the table that may have room
+    * for another record, or -1 if every block is full.
+    * The cursor is moved past the full blocks that were skipped,
+    * so that later insertions do not examine them again.
+    * @param numblocks the number of blocks in the table
+    * @return the number of a block that may have room, or -1
+    */
+   int blockWithRoom(int numblocks) {
+      int cursor = get(0);
+      int blknum = Math.min(cursor, numblocks);
+      while (blknum < numblocks && get(blknum+1) == FULL)
+         blknum++;
+      if (blknum != cursor)
+         set(0, blknum);
+      return (blknum < numblocks) ? blknum : -1;
+   }
+
+   /**
+    * Return the first block after the specified one that may have
+    * room for another record, or -1 if there is none.
+    * An insertion uses it to go past a block whose empty slots
+    * are locked by other transactions, without waiting for them;
+    * the cursor is not moved, since that block is not full.
+    * @param blknum the number of the block to search after
+    * @param numblocks the number of blocks in the table
+    * @return the number of a block that may have room, or -1
+    */
+   int nextBlockWithRoom(int blknum, int numblocks) {
+      for (blknum++; blknum < numblocks; blknum++)
+         if (get(blknum+1) != FULL)
+            return blknum;
+      return -1;
+   }
+
+   /**
+    * Record that the transaction has inserted into the specified block,
+    * so that the block is recorded as having room if it rolls back.
+    * @param blknum the number of the block
+    */
+   void inserted(int blknum) {
+      tx.onRollback(filename + ":" + blknum, () -> hasRoom(blknum));
+   }
+
+   /**
+    * Record that the specified block has no room for another record.
+    * @param blknum the number of the block
+    */
+   void full(int blknum) {
+      if (get(blknum+1) != FULL)
+         set(blknum+1, FULL);
+   }
+
+   /**
+    * Record that the specified block has room for another record,
+    * because a record was deleted or the block was appended,
+    * moving the cursor back to it if necessary.
+    * @param blknum the number of the block
+    */
+   void hasRoom(int blknum) {
+      if (get(blknum+1) != ROOM)
+         set(blknum+1, ROOM);
+      if (get(0) > blknum)
+         set(0, blknum);
+   }
+
+   private int get(int entry) {
+      BlockId blk = new BlockId(filename, entry / entriesPerBlock);
+      tx.pin(blk);
+      int val = tx.getHint(blk, offset(entry));
+      tx.unpin(blk);
+      return val;
+   }
+
+   private void set(int entry, int val) {
+      BlockId blk = new BlockId(filename, entry / entriesPerBlock);
+      tx.pin(blk);
+      tx.setHint(blk, offset(entry), val);
+      tx.unpin(blk);
+   }
+
+   private int offset(int entry) {
+      return (entry % entriesPerBlock) * Integer.BYTES;
+   }
+}
@@ -0,0 +1,87 @@
+package simpledb.record;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+public class FreeSpaceTest {
+   private static SimpleDB db;
+   private static Layout layout;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("freespacetest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 9);
+      layout = new Layout(sch);
+
+      // single-row inserts, each with its own scan and transaction,
+      // cost the same however large the table
+      int size = 0;
+      for (int target : new int[] {1000, 10000, 50000}) {
+         Transaction tx = db.newTx();
+         TableScan ts = new TableScan(tx, "T", layout);
+         for (; size<target; size++) {
+            ts.insert();
+            ts.setInt("A", size);
+            ts.setString("B", "rec" + size);
+         }
+         ts.close();
+         tx.commit();
+         BufferMgr bm = db.bufferMgr();
+         bm.resetStats();
+         for (int i=0; i<100; i++)
+            insert(size++);
+         System.out.println("table of " + size + " records: "
+               + (bm.hits() + bm.misses()) / 100.0 + " block accesses per insert");
+      }
+
+      // a deleted slot is found and reused
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      ts.moveToRid(new RID(3, 5));
+      ts.delete();
+      ts.close();
+      tx.commit();
+      System.out.println("after deleting [3, 5], the next insert goes to " + insert(-1));
+      System.out.println("and the one after it goes to " + insert(-2));
+
+      // the slot of an uncommitted deletion is passed over, without waiting
+      Transaction deleter = db.newTx();
+      ts = new TableScan(deleter, "T", layout);
+      ts.moveToRid(new RID(3, 6));
+      ts.delete();
+      System.out.println("while the deletion of [3, 6] is uncommitted, an insert goes to "
+            + insert(-3));
+      ts.close();
+      deleter.commit();
+      System.out.println("once it commits, the next insert goes to " + insert(-4));
+
+      // the blocks filled by a rolled-back transaction are reused
+      RID before = insert(-5);
+      Transaction loser = db.newTx();
+      ts = new TableScan(loser, "T", layout);
+      for (int i=0; i<100; i++) {
+         ts.insert();
+         ts.setInt("A", -100);
+         ts.setString("B", "loser");
+      }
+      RID last = ts.getRid();
+      ts.close();
+      loser.rollback();
+      System.out.println("after rolling back inserts from " + before + " to " + last
+            + ", the next insert goes to " + insert(-6));
+   }
+
+   private static RID insert(int val) {
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      ts.insert();
+      ts.setInt("A", val);
+      ts.setString("B", "rec" + val);
+      RID rid = ts.getRid();
+      ts.close();
+      tx.commit();
+      return rid;
+   }
+}
@@ -8,16 +8,28 @@ import simpledb.file.Page;
  * Description of the structure of a record.
  * It contains the name, type, length and offset of
  * each field of the table.
+ * <p>
+ * A layout has one of three formats.
+ * In a fixed-size layout, each record occupies a slot of the same size,
+ * with room for the longest value of every field.
+ * A columnar layout has the same slots, but a block stores
+ * the values of each field together, PAX-style (see {@link RecordPage}).
+ * In a slotted layout, records vary in size, and a string takes only
+ * the space that its value needs; the offset of a field is then
+ * the position of its cell at the beginning of the record
+ * (see {@link SlottedRecordPage}).
  * @author Edward Sciore
  *
  */
 public class Layout {
+   public static final int FIXED = 0, SLOTTED = 1, COLUMNAR = 2;
    private Schema schema;
    private Map<String,Integer> offsets;
    private int slotsize;
+   private int format;
 
    /**
-    * This constructor creates a Layout object from a schema. 
+    * This constructor creates a fixed-size Layout object from a schema. 
     * This constructor is used when a table 
     * is created. It determines the physical offset of 
     * each field within the record.
@@ -25,8 +37,28 @@ public class Layout {
     * @param schema the schema of the table's records
     */
    public Layout(Schema schema) {
+      this(schema, FIXED);
+   }
+
+   /**
+    * This constructor creates a Layout object
+    * of the specified format from a schema.
+    * @param schema the schema of the table's records
+    * @param format FIXED, SLOTTED or COLUMNAR
+    */
+   public Layout(Schema schema, int format) {
       this.schema = schema;
+      this.format = format;
       offsets  = new HashMap<>();
+      if (format == SLOTTED) {
+         int pos = 0;
+         for (String fldname : schema.fields()) {
+            offsets.put(fldname, pos);
+            pos += Integer.BYTES;
+         }
+         slotsize = 0;
+         return;
+      }
       int pos = Integer.BYTES; // leave space for the empty/inuse flag
       for (String fldname : schema.fields()) {
          offsets.put(fldname, pos);
@@ -42,12 +74,19 @@ public class Layout {
     * @param tblname the name of the table
     * @param schema the schema of the table's records
     * @param offsets the already-calculated offsets of the fields within a record
-    * @param recordlen the already-calculated length of each record
+    * @param slotsize the already-calculated size of each slot, 
+    * which is 0 if slotted and negated if columnar
     */
    public Layout(Schema schema, Map<String,Integer> offsets, int slotsize) {
       this.schema    = schema;
       this.offsets   = offsets;
-      this.slotsize = slotsize;
+      this.slotsize = Math.abs(slotsize);
+      if (slotsize == 0)
+         format = SLOTTED;
+      else if (slotsize < 0)
+         format = COLUMNAR;
+      else
+         format = FIXED;
    }
 
    /**
@@ -69,13 +108,37 @@ public class Layout {
 
    /**
     * Return the size of a slot, in bytes.
+    * A slotted layout has no fixed slot size, and returns 0.
     * @return the size of a slot
     */
    public int slotSize() {
       return slotsize;
    }
 
-   private int lengthInBytes(String fldname) {
+   /**
+    * Return true if the records vary in size,
+    * and are stored in slotted pages.
+    * @return true if the layout is slotted
+    */
+   public boolean isSlotted() {
+      return format == SLOTTED;
+   }
+
+   /**
+    * Return true if the values of each field
+    * are stored together in a block.
+    * @return true if the layout is columnar
+    */
+   public boolean isColumnar() {
+      return format == COLUMNAR;
+   }
+
+   /**
+    * Return the size of the specified field in a slot, in bytes.
+    * @param fldname the name of the field
+    * @return the size of that field
+    */
+   int lengthInBytes(String fldname) {
       int fldtype = schema.type(fldname);
       if (fldtype == INTEGER)
          return Integer.BYTES;
@@ -6,13 +6,33 @@ import simpledb.tx.Transaction;
 
 /**
  * Store a record at a given location in a block. 
+ * Each record is locked before it is read or modified,
+ * which costs nothing when the transaction has
+ * already locked the whole table.
+ * <p>
+ * A block holds as many slots as fit.
+ * In a fixed-size layout, each slot is stored contiguously,
+ * beginning with its empty/inuse flag.
+ * In a columnar layout, the block is divided PAX-style into
+ * a minipage of flags followed by a minipage for each field,
+ * which holds that field's value for every slot, so that a scan
+ * that reads a few fields touches only their minipages.
+ * The minipages take the same space as the slots would,
+ * so both layouts hold the same number of records per block.
  * @author Edward Sciore
  */
 public class RecordPage {
    public static final int EMPTY = 0, USED = 1;
+
+   /**
+    * The value returned by {@link #insertAfter(int)} when the
+    * block has empty slots, but other transactions have them locked.
+    */
+   public static final int BUSY = -2;
    private Transaction tx;
    private BlockId blk;
    private Layout layout;
+   boolean okToLog = true;
 
    public RecordPage(Transaction tx, BlockId blk, Layout layout) {
       this.tx = tx;
@@ -28,7 +48,8 @@ public class RecordPage {
     * @return the integer stored in that field
     */
    public int getInt(int slot, String fldname) {
-      int fldpos = offset(slot) + layout.offset(fldname);
+      tx.sLockRecord(blk, slot);
+      int fldpos = fieldPos(slot, fldname);
       return tx.getInt(blk, fldpos);
    }
 
@@ -39,7 +60,8 @@ public class RecordPage {
     * @return the string stored in that field
     */
    public String getString(int slot, String fldname) {
-      int fldpos = offset(slot) + layout.offset(fldname);
+      tx.sLockRecord(blk, slot);
+      int fldpos = fieldPos(slot, fldname);
       return tx.getString(blk, fldpos);
    }
 
@@ -50,8 +72,9 @@ public class RecordPage {
     * @param val the integer value stored in that field
     */
    public void setInt(int slot, String fldname, int val) {
-      int fldpos = offset(slot) + layout.offset(fldname);
-      tx.setInt(blk, fldpos, val, true);
+      tx.xLockRecord(blk, slot);
+      int fldpos = fieldPos(slot, fldname);
+      tx.setInt(blk, fldpos, val, okToLog);
    }
 
    /**
@@ -61,11 +84,13 @@ public class RecordPage {
     * @param val the string value stored in that field
     */
    public void setString(int slot, String fldname, String val) {
-      int fldpos = offset(slot) + layout.offset(fldname);
-      tx.setString(blk, fldpos, val, true);
+      tx.xLockRecord(blk, slot);
+      int fldpos = fieldPos(slot, fldname);
+      tx.setString(blk, fldpos, val, okToLog);
    }
    
    public void delete(int slot) {
+      tx.xLockRecord(blk, slot);
       setFlag(slot, EMPTY);
    }
    
@@ -76,10 +101,10 @@ public class RecordPage {
    public void format() {
       int slot = 0;
       while (isValidSlot(slot)) {
-         tx.setInt(blk, offset(slot), EMPTY, false); 
+         tx.setInt(blk, flagPos(slot), EMPTY, false); 
          Schema sch = layout.schema();
          for (String fldname : sch.fields()) {
-            int fldpos = offset(slot) + layout.offset(fldname);
+            int fldpos = fieldPos(slot, fldname);
             if (sch.type(fldname) == INTEGER)
                tx.setInt(blk, fldpos, 0, false);
             else
@@ -93,16 +118,45 @@ public class RecordPage {
       return searchAfter(slot, USED);
    }
  
+   /**
+    * Find an empty slot after the specified one,
+    * lock it, and mark it as used.
+    * The slot of a record deleted by an uncommitted
+    * transaction is still locked by it, and is passed over
+    * instead of waiting for that transaction to finish,
+    * since it may yet roll back.
+    * @param slot the slot to search after
+    * @return the new slot, -1 if the block is full,
+    * or {@link #BUSY} if its empty slots are all locked
+    */
    public int insertAfter(int slot) {
+      tx.ixLock(blk);
+      boolean busy = false;
       int newslot = searchAfter(slot, EMPTY);
-      if (newslot >= 0)
-         setFlag(newslot, USED);
-      return newslot;
+      while (newslot >= 0) {
+         if (!tx.tryXLockRecord(blk, newslot))
+            busy = true;
+         else if (tx.getInt(blk, flagPos(newslot)) == EMPTY) {
+            setFlag(newslot, USED);
+            return newslot;
+         }
+         newslot = searchAfter(newslot, EMPTY);
+      }
+      return busy ? BUSY : -1;
    }
   
    public BlockId block() {
       return blk;
    }
+
+   /**
+    * Stop logging the modifications of the block,
+    * which is being filled before any other transaction can
+    * see it, and whose image is logged once it is full.
+    */
+   void disableLogging() {
+      okToLog = false;
+   }
    
    // Private auxiliary methods
    
@@ -110,13 +164,13 @@ public class RecordPage {
     * Set the record's empty/inuse flag.
     */
    private void setFlag(int slot, int flag) {
-      tx.setInt(blk, offset(slot), flag, true); 
+      tx.setInt(blk, flagPos(slot), flag, okToLog); 
    }
 
    private int searchAfter(int slot, int flag) {
       slot++;
       while (isValidSlot(slot)) {
-         if (tx.getInt(blk, offset(slot)) == flag)
+         if (tx.getInt(blk, flagPos(slot)) == flag)
             return slot;
          slot++;
       }
@@ -124,11 +178,32 @@ public class RecordPage {
    }
 
    private boolean isValidSlot(int slot) {
-      return offset(slot+1) <= tx.blockSize();
+      return slot < slotsPerBlock();
+   }
+
+   private int slotsPerBlock() {
+      return tx.blockSize() / layout.slotSize();
    }
 
-   private int offset(int slot) {
-      return slot * layout.slotSize();
+   private int flagPos(int slot) {
+      if (layout.isColumnar())
+         return slot * Integer.BYTES;
+      else
+         return slot * layout.slotSize();
+   }
+
+   /**
+    * Return the position of the field in the block.
+    * The minipage of a field in a columnar block begins where the
+    * field would begin in a fixed-size block if every slot
+    * were the size of that field.
+    */
+   private int fieldPos(int slot, String fldname) {
+      if (layout.isColumnar())
+         return slotsPerBlock() * layout.offset(fldname)
+               + slot * layout.lengthInBytes(fldname);
+      else
+         return slot * layout.slotSize() + layout.offset(fldname);
    }
 }
 
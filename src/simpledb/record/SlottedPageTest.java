@@ -0,0 +1,128 @@
+package simpledb.record;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+public class SlottedPageTest {
+   private static SimpleDB db;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("slottedpagetest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 100);
+      Layout fixed = new Layout(sch);
+      Layout slotted = new Layout(sch, Layout.SLOTTED);
+
+      // short values of a long field fill fewer blocks when slotted
+      load("F", fixed);
+      load("S", slotted);
+      Transaction tx = db.newTx();
+      System.out.println("1000 records: " + tx.size("F.tbl") + " fixed-size blocks, "
+            + tx.size("S.tbl") + " slotted blocks");
+      tx.commit();
+
+      // a growing string moves its record, compacting the block
+      // if necessary, and a rollback moves everything back
+      tx = db.newTx();
+      TableScan ts = new TableScan(tx, "S", slotted);
+      String before = contents(ts, 0);
+      ts.moveToRid(new RID(0, 3));
+      ts.setString("B", "a much longer value for record 3");
+      System.out.println("after growing [0, 3]: " + contents(ts, 0));
+      for (int slot=5; slot<10; slot++) {
+         ts.moveToRid(new RID(0, slot));
+         ts.delete();
+      }
+      ts.insert();
+      ts.setInt("A", -1);
+      ts.setString("B", "new");
+      System.out.println("after deleting [0, 5] to [0, 9], inserted " + ts.getRid()
+            + ": " + contents(ts, 0));
+      ts.close();
+      tx.rollback();
+      tx = db.newTx();
+      ts = new TableScan(tx, "S", slotted);
+      System.out.println("rollback restores block 0: " + before.equals(contents(ts, 0)));
+
+      // a record too large for any block cannot be stored
+      ts.moveToRid(new RID(0, 3));
+      try {
+         ts.setString("B", "x".repeat(400));
+         System.out.println("error: oversized record was stored");
+      }
+      catch (RuntimeException e) {
+         System.out.println("oversized record: " + e.getMessage());
+      }
+      ts.close();
+      tx.rollback();
+
+      // records that grow beyond the room left in their full block
+      // are forwarded to another block, and keep their RIDs
+      tx = db.newTx();
+      ts = new TableScan(tx, "S", slotted);
+      before = contents(ts, 0);
+      int count = count(ts);
+      int blocks = tx.size("S.tbl");
+      for (int slot=0; slot<10; slot++) {
+         ts.moveToRid(new RID(0, slot));
+         ts.setString("B", longValue(slot));
+      }
+      boolean same = true;
+      for (int slot=0; slot<10; slot++) {
+         ts.moveToRid(new RID(0, slot));
+         same = same && ts.getInt("A") == slot && ts.getString("B").equals(longValue(slot));
+      }
+      System.out.println("10 records grown to 100 chars: values kept " + same
+            + ", " + count(ts) + " of " + count + " records scanned, "
+            + (tx.size("S.tbl") - blocks) + " blocks added");
+      ts.moveToRid(new RID(0, 9));
+      ts.setString("B", "short again");
+      ts.setString("B", longValue(99));
+      ts.setInt("A", -9);
+      System.out.println("record [0, 9] updated again: " + ts.getInt("A") + ":"
+            + ts.getString("B").substring(0, 3));
+      ts.delete();
+      System.out.println("after deleting it: " + count(ts) + " records scanned");
+      ts.close();
+      tx.rollback();
+      tx = db.newTx();
+      ts = new TableScan(tx, "S", slotted);
+      System.out.println("rollback restores block 0: " + before.equals(contents(ts, 0))
+            + ", " + count(ts) + " records scanned");
+      ts.close();
+      tx.commit();
+   }
+
+   private static String longValue(int n) {
+      return String.format("%03d", n) + "y".repeat(97);
+   }
+
+   private static int count(TableScan ts) {
+      int n = 0;
+      ts.beforeFirst();
+      while (ts.next())
+         n++;
+      return n;
+   }
+
+   private static void load(String tblname, Layout layout) {
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, tblname, layout);
+      for (int i=0; i<1000; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         ts.setString("B", "rec" + i);
+      }
+      ts.close();
+      tx.commit();
+   }
+
+   private static String contents(TableScan ts, int blknum) {
+      StringBuilder sb = new StringBuilder();
+      ts.beforeFirst();
+      while (ts.next() && ts.getRid().blockNumber() == blknum)
+         sb.append(ts.getInt("A") + ":" + ts.getString("B") + " ");
+      return sb.toString();
+   }
+}
@@ -0,0 +1,463 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import java.util.*;
+import simpledb.file.*;
+import simpledb.query.Constant;
+import simpledb.tx.Transaction;
+
+/**
+ * Store records of varying size in a block, using a slotted page.
+ * The block begins with a header that holds the number of slots
+ * and the start of the record space, followed by the slot directory,
+ * which holds the offset and length of the record in each slot;
+ * an offset of 0 denotes an empty slot.
+ * Records are allocated from the end of the block towards the directory.
+ * <p>
+ * A record begins with a 4-byte cell for each field, which holds
+ * the value of an integer field, or the position of a string field
+ * within the record. The strings follow the cells,
+ * each taking only the space that its value needs.
+ * A string that grows moves its record to free space in the block,
+ * and the space left behind by moved and deleted records
+ * is reclaimed by compacting the block when it is needed.
+ * A record is inserted only into a block with room for the largest
+ * possible record, so that the values of a new record can always be
+ * stored once its RID is known.
+ * <p>
+ * A record that grows too large for the free space of its block
+ * is moved to another block of the table, and its slot is left
+ * as a forwarding stub, so that its RID does not change.
+ * A stub holds the negated number (plus one) of the block
+ * in place of the offset, and the slot of the moved record
+ * in place of the length; the moved record has a negated length,
+ * so that a scan of its new block skips it.
+ * Reading or writing a forwarded record follows the stub,
+ * and a record that moves again is forwarded from the stub
+ * itself, so that a record is never more than one block away.
+ * <p>
+ * Since inserting, moving and compacting records change the header
+ * and the positions of other records, a transaction locks
+ * the whole block to modify it, instead of individual records.
+ * Records are written an integer at a time, so that the log
+ * holds the exact bytes that each write replaced,
+ * whatever was there before; strings are therefore
+ * padded to a multiple of 4 bytes.
+ */
+public class SlottedRecordPage extends RecordPage {
+   private static final int HEADER = 2 * Integer.BYTES;
+   private static final int SLOT_SIZE = 2 * Integer.BYTES;
+   private Transaction tx;
+   private BlockId blk;
+   private Layout layout;
+   private int maxsize;
+
+   public SlottedRecordPage(Transaction tx, BlockId blk, Layout layout) {
+      super(tx, blk, layout);
+      this.tx = tx;
+      this.blk = blk;
+      this.layout = layout;
+      Schema sch = layout.schema();
+      maxsize = sch.fields().size() * Integer.BYTES;
+      for (String fldname : sch.fields())
+         if (sch.type(fldname) != INTEGER)
+            maxsize += roundUp(Page.maxLength(sch.length(fldname)));
+   }
+
+   /**
+    * Return the integer value stored for the
+    * specified field of a specified slot.
+    * @param fldname the name of the field.
+    * @return the integer stored in that field
+    */
+   public int getInt(int slot, String fldname) {
+      if (isForwarded(slot)) {
+         SlottedRecordPage target = target(slot);
+         int val = target.getInt(targetSlot(slot), fldname);
+         tx.unpin(target.blk);
+         return val;
+      }
+      return tx.getInt(blk, recordOffset(slot) + layout.offset(fldname));
+   }
+
+   /**
+    * Return the string value stored for the
+    * specified field of the specified slot.
+    * @param fldname the name of the field.
+    * @return the string stored in that field
+    */
+   public String getString(int slot, String fldname) {
+      if (isForwarded(slot)) {
+         SlottedRecordPage target = target(slot);
+         String val = target.getString(targetSlot(slot), fldname);
+         tx.unpin(target.blk);
+         return val;
+      }
+      return tx.getString(blk, stringOffset(slot, fldname));
+   }
+
+   /**
+    * Store an integer at the specified field
+    * of the specified slot.
+    * @param fldname the name of the field
+    * @param val the integer value stored in that field
+    */
+   public void setInt(int slot, String fldname, int val) {
+      tx.xLock(blk);
+      if (isForwarded(slot)) {
+         SlottedRecordPage target = target(slot);
+         target.setInt(targetSlot(slot), fldname, val);
+         tx.unpin(target.blk);
+         return;
+      }
+      tx.setInt(blk, recordOffset(slot) + layout.offset(fldname), val, okToLog);
+   }
+
+   /**
+    * Store a string at the specified field
+    * of the specified slot.
+    * A string no longer than the current one is written in place;
+    * otherwise the record is rewritten elsewhere in the block,
+    * or moved to another block if its own block has no room.
+    * @param fldname the name of the field
+    * @param val the string value stored in that field
+    */
+   public void setString(int slot, String fldname, String val) {
+      tx.xLock(blk);
+      if (isForwarded(slot)) {
+         SlottedRecordPage target = target(slot);
+         int tslot = targetSlot(slot);
+         Map<String,Constant> vals = target.update(tslot, fldname, val);
+         if (vals != null) {
+            target.delete(tslot);
+            place(slot, vals);
+         }
+         tx.unpin(target.blk);
+         return;
+      }
+      Map<String,Constant> vals = update(slot, fldname, val);
+      if (vals != null)
+         place(slot, vals);
+   }
+
+   public void delete(int slot) {
+      tx.xLock(blk);
+      if (isForwarded(slot)) {
+         SlottedRecordPage target = target(slot);
+         target.delete(targetSlot(slot));
+         tx.unpin(target.blk);
+      }
+      tx.setInt(blk, slotOffset(slot), 0, okToLog);
+   }
+
+   /** Format a new block with an empty slot directory.
+    *  These values should not be logged
+    *  (because the old values are meaningless).
+    */
+   public void format() {
+      tx.setInt(blk, 0, 0, false);
+      tx.setInt(blk, Integer.BYTES, tx.blockSize(), false);
+   }
+
+   public int nextAfter(int slot) {
+      int numslots = numSlots();
+      for (slot++; slot < numslots; slot++) {
+         int rec = recordOffset(slot);
+         if (rec < 0 || (rec > 0 && recordLength(slot) > 0))
+            return slot;
+      }
+      return -1;
+   }
+
+   /**
+    * Find an empty slot after the specified one,
+    * or add one to the directory,
+    * and store a record with default values in it.
+    * A block that another transaction has locked is passed over
+    * instead of waiting for that transaction to finish.
+    * @param slot the slot to search after
+    * @return the new slot, -1 if the block is full,
+    * or {@link #BUSY} if another transaction has locked the block
+    */
+   public int insertAfter(int slot) {
+      if (!tx.tryXLock(blk))
+         return BUSY;
+      int numslots = numSlots();
+      int newslot = slot + 1;
+      while (newslot < numslots && recordOffset(newslot) != 0)
+         newslot++;
+      if (newslot > numslots)
+         newslot = numslots;
+      int extra = (newslot < numslots) ? 0 : SLOT_SIZE;
+      Map<String,Constant> vals = new HashMap<>();
+      Schema sch = layout.schema();
+      for (String fldname : sch.fields())
+         vals.put(fldname, (sch.type(fldname) == INTEGER) ? new Constant(0) : new Constant(""));
+      int len = recordSize(vals);
+      int rec = allocate(len, maxsize + extra);
+      if (rec < 0)
+         return -1;
+      if (newslot == numslots)
+         tx.setInt(blk, 0, numslots + 1, okToLog);
+      write(rec, vals);
+      setSlot(newslot, rec, len);
+      return newslot;
+   }
+
+   // Private auxiliary methods
+
+   /**
+    * Store a string in the record of a slot of this block,
+    * in place if it is no longer than the current one,
+    * and otherwise by rewriting the record elsewhere in the block.
+    * The record is removed from its slot before the space is
+    * allocated, so that compaction can reclaim its old space.
+    * @return null if the string was stored, or else the values
+    * of the updated record, which no longer has a place in the block
+    */
+   private Map<String,Constant> update(int slot, String fldname, String val) {
+      tx.xLock(blk);
+      int pos = stringOffset(slot, fldname);
+      if (size(val) <= size(tx.getString(blk, pos))) {
+         tx.setString(blk, pos, val, okToLog);
+         return null;
+      }
+      Map<String,Constant> vals = read(slot);
+      vals.put(fldname, new Constant(val));
+      int len = recordSize(vals);
+      if (len > tx.blockSize() - HEADER - SLOT_SIZE)
+         throw new RuntimeException("record does not fit in " + blk);
+      boolean moved = recordLength(slot) < 0;
+      tx.setInt(blk, slotOffset(slot), 0, okToLog);
+      int rec = allocate(len, len);
+      if (rec < 0)
+         return vals;
+      write(rec, vals);
+      setSlot(slot, rec, moved ? -len : len);
+      return null;
+   }
+
+   /**
+    * Store the values of a record for the specified slot,
+    * which holds no record, in this block if it has room,
+    * and otherwise in another block of the table,
+    * leaving a forwarding stub in the slot.
+    */
+   private void place(int slot, Map<String,Constant> vals) {
+      int len = recordSize(vals);
+      int rec = allocate(len, len);
+      if (rec >= 0) {
+         write(rec, vals);
+         setSlot(slot, rec, len);
+         return;
+      }
+      if (!okToLog)
+         throw new RuntimeException("record does not fit in " + blk);
+      String filename = blk.fileName();
+      int last = tx.size(filename) - 1;
+      if (last != blk.number()) {
+         SlottedRecordPage target = new SlottedRecordPage(tx, new BlockId(filename, last), layout);
+         int tslot = target.moveIn(vals);
+         tx.unpin(target.blk);
+         if (tslot >= 0) {
+            setSlot(slot, -(last + 1), tslot);
+            return;
+         }
+      }
+      BlockId newblk = tx.append(filename);
+      SlottedRecordPage target = new SlottedRecordPage(tx, newblk, layout);
+      target.format();
+      int tslot = target.moveIn(vals);
+      tx.unpin(newblk);
+      setSlot(slot, -(newblk.number() + 1), tslot);
+   }
+
+   /**
+    * Store a record moved from another block
+    * in an empty slot of this block.
+    * @return the slot, or -1 if the block has no room
+    */
+   private int moveIn(Map<String,Constant> vals) {
+      tx.xLock(blk);
+      int numslots = numSlots();
+      int newslot = 0;
+      while (newslot < numslots && recordOffset(newslot) != 0)
+         newslot++;
+      int extra = (newslot < numslots) ? 0 : SLOT_SIZE;
+      int len = recordSize(vals);
+      int rec = allocate(len, len + extra);
+      if (rec < 0)
+         return -1;
+      if (newslot == numslots)
+         tx.setInt(blk, 0, numslots + 1, okToLog);
+      write(rec, vals);
+      setSlot(newslot, rec, -len);
+      return newslot;
+   }
+
+   private boolean isForwarded(int slot) {
+      return recordOffset(slot) < 0;
+   }
+
+   /**
+    * Pin the block that holds the record
+    * forwarded from the specified slot.
+    * The caller must unpin it.
+    */
+   private SlottedRecordPage target(int slot) {
+      BlockId tblk = new BlockId(blk.fileName(), -recordOffset(slot) - 1);
+      return new SlottedRecordPage(tx, tblk, layout);
+   }
+
+   private int targetSlot(int slot) {
+      return recordLength(slot);
+   }
+
+   /**
+    * Reserve space for a record of the specified length,
+    * compacting the block if the free space is too small
+    * but compaction would make it large enough.
+    * @param len the length of the record
+    * @param needed the free space that the block must have
+    * @return the offset of the space, or -1 if the block has no room
+    */
+   private int allocate(int len, int needed) {
+      int dirend = slotOffset(numSlots());
+      int end = freeEnd();
+      if (end - needed < dirend) {
+         if (tx.blockSize() - liveBytes() - needed < dirend)
+            return -1;
+         compact();
+         end = freeEnd();
+      }
+      tx.setInt(blk, Integer.BYTES, end - len, okToLog);
+      return end - len;
+   }
+
+   /**
+    * Rewrite the records contiguously at the end of the block.
+    * All records are read before any is written,
+    * because a record can move onto the old place of another.
+    */
+   private void compact() {
+      int numslots = numSlots();
+      List<Map<String,Constant>> recs = new ArrayList<>();
+      for (int slot=0; slot<numslots; slot++)
+         recs.add(recordOffset(slot) > 0 ? read(slot) : null);
+      int end = tx.blockSize();
+      for (int slot=0; slot<numslots; slot++) {
+         Map<String,Constant> vals = recs.get(slot);
+         if (vals != null) {
+            int len = recordSize(vals);
+            end -= len;
+            write(end, vals);
+            setSlot(slot, end, recordLength(slot) < 0 ? -len : len);
+         }
+      }
+      tx.setInt(blk, Integer.BYTES, end, okToLog);
+   }
+
+   private int liveBytes() {
+      int numslots = numSlots();
+      int live = 0;
+      for (int slot=0; slot<numslots; slot++)
+         if (recordOffset(slot) > 0)
+            live += Math.abs(recordLength(slot));
+      return live;
+   }
+
+   private Map<String,Constant> read(int slot) {
+      Map<String,Constant> vals = new HashMap<>();
+      Schema sch = layout.schema();
+      for (String fldname : sch.fields()) {
+         if (sch.type(fldname) == INTEGER)
+            vals.put(fldname, new Constant(getInt(slot, fldname)));
+         else
+            vals.put(fldname, new Constant(getString(slot, fldname)));
+      }
+      return vals;
+   }
+
+   private void write(int rec, Map<String,Constant> vals) {
+      Schema sch = layout.schema();
+      int pos = sch.fields().size() * Integer.BYTES;
+      for (String fldname : sch.fields()) {
+         int cell = rec + layout.offset(fldname);
+         if (sch.type(fldname) == INTEGER)
+            tx.setInt(blk, cell, vals.get(fldname).asInt(), okToLog);
+         else {
+            String s = vals.get(fldname).asString();
+            tx.setInt(blk, cell, pos, okToLog);
+            writeString(rec + pos, s);
+            pos += size(s);
+         }
+      }
+   }
+
+   /**
+    * Write a string in the format of {@link Page#getString},
+    * one integer at a time.
+    */
+   private void writeString(int offset, String s) {
+      byte[] b = s.getBytes(Page.CHARSET);
+      tx.setInt(blk, offset, b.length, okToLog);
+      for (int i=0; i<b.length; i+=Integer.BYTES) {
+         int chunk = 0;
+         for (int j=i; j<i+Integer.BYTES; j++)
+            chunk = (chunk << 8) | (j < b.length ? b[j] & 0xff : 0);
+         tx.setInt(blk, offset + Integer.BYTES + i, chunk, okToLog);
+      }
+   }
+
+   private int recordSize(Map<String,Constant> vals) {
+      Schema sch = layout.schema();
+      int len = sch.fields().size() * Integer.BYTES;
+      for (String fldname : sch.fields())
+         if (sch.type(fldname) != INTEGER)
+            len += size(vals.get(fldname).asString());
+      return len;
+   }
+
+   private static int size(String s) {
+      return Integer.BYTES + roundUp(s.getBytes(Page.CHARSET).length);
+   }
+
+   private static int roundUp(int len) {
+      return (len + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES;
+   }
+
+   private void setSlot(int slot, int rec, int len) {
+      tx.setInt(blk, slotOffset(slot), rec, okToLog);
+      tx.setInt(blk, slotOffset(slot) + Integer.BYTES, len, okToLog);
+   }
+
+   private int stringOffset(int slot, String fldname) {
+      int rec = recordOffset(slot);
+      return rec + tx.getInt(blk, rec + layout.offset(fldname));
+   }
+
+   private int recordOffset(int slot) {
+      return tx.getInt(blk, slotOffset(slot));
+   }
+
+   private int recordLength(int slot) {
+      return tx.getInt(blk, slotOffset(slot) + Integer.BYTES);
+   }
+
+   private int numSlots() {
+      return tx.getInt(blk, 0);
+   }
+
+   /**
+    * Return the start of the record space;
+    * a block that was never formatted has none.
+    */
+   private int freeEnd() {
+      int end = tx.getInt(blk, Integer.BYTES);
+      return (end == 0) ? tx.blockSize() : end;
+   }
+
+   private int slotOffset(int slot) {
+      return HEADER + slot * SLOT_SIZE;
+   }
+}
@@ -0,0 +1,147 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import java.util.*;
+import simpledb.file.BlockId;
+import simpledb.query.Constant;
+import simpledb.tx.Transaction;
+
+/**
+ * Loads a large number of records into a table, much more cheaply
+ * than inserting them one at a time through a table scan.
+ * <p>
+ * The loader locks the whole table exclusively, so that its
+ * records need no locks of their own, and appends new blocks
+ * to the table instead of filling the free space of existing ones.
+ * A block is filled while its buffer is latched exclusively and
+ * without logging its modifications; once it is full, the image
+ * of its page is logged instead, and its zone-map entry is
+ * set from the bounds of the values that were loaded into it.
+ * If the transaction rolls back, the blocks that it appended
+ * are emptied again, and the free-space map records them as
+ * having room, so that their space is reused.
+ * <p>
+ * The buffer of the block being filled stays latched until the
+ * next block is begun or the loader is closed, and so
+ * the loader must always be closed, even if the load fails.
+ */
+public class TableLoader {
+   private Transaction tx;
+   private Layout layout;
+   private String filename;
+   private FreeSpaceMap fsm;
+   private ZoneMap zm;
+   private RecordPage rp;
+   private int currentslot = -1;
+   private Map<String,Constant> low = new HashMap<>();
+   private Map<String,Constant> high = new HashMap<>();
+   private Set<String> unsetFields = new HashSet<>();
+
+   public TableLoader(Transaction tx, String tblname, Layout layout) {
+      this.tx = tx;
+      this.layout = layout;
+      filename = tblname + ".tbl";
+      fsm = new FreeSpaceMap(tx, tblname);
+      zm = new ZoneMap(tx, tblname, layout);
+      tx.xLockTable(filename);
+   }
+
+   /**
+    * Insert a new record into the current block,
+    * or into a newly appended block if the current one is full.
+    * The fields of the record that are not set
+    * keep their default values.
+    */
+   public void insert() {
+      coverUnsetFields();
+      if (rp != null) {
+         currentslot = rp.insertAfter(currentslot);
+         if (currentslot >= 0) {
+            unsetFields.addAll(layout.schema().fields());
+            return;
+         }
+         finishBlock(true);
+      }
+      BlockId blk = tx.append(filename);
+      rp = layout.isSlotted() ? new SlottedRecordPage(tx, blk, layout)
+                              : new RecordPage(tx, blk, layout);
+      rp.disableLogging();
+      tx.beginPageImage(blk);
+      rp.format();
+      currentslot = rp.insertAfter(-1);
+      if (currentslot < 0)
+         throw new RuntimeException("record does not fit in " + blk);
+      unsetFields.addAll(layout.schema().fields());
+   }
+
+   public void setInt(String fldname, int val) {
+      cover(fldname, new Constant(val));
+      unsetFields.remove(fldname);
+      rp.setInt(currentslot, fldname, val);
+   }
+
+   public void setString(String fldname, String val) {
+      cover(fldname, new Constant(val));
+      unsetFields.remove(fldname);
+      rp.setString(currentslot, fldname, val);
+   }
+
+   public void setVal(String fldname, Constant val) {
+      if (layout.schema().type(fldname) == INTEGER)
+         setInt(fldname, val.asInt());
+      else
+         setString(fldname, val.asString());
+   }
+
+   public RID getRid() {
+      return new RID(rp.block().number(), currentslot);
+   }
+
+   /**
+    * Finish the current block, which may have room
+    * for more records.
+    */
+   public void close() {
+      if (rp != null) {
+         coverUnsetFields();
+         finishBlock(false);
+         rp = null;
+      }
+   }
+
+   // Private auxiliary methods
+
+   /**
+    * Set the zone-map entry of the current block, log the image
+    * of its page, and record in the free-space map whether it is full.
+    */
+   private void finishBlock(boolean full) {
+      int blknum = rp.block().number();
+      zm.set(blknum, low, high);
+      tx.logPageImage(rp.block());
+      fsm.inserted(blknum);
+      if (full)
+         fsm.full(blknum);
+      else
+         fsm.hasRoom(blknum);
+      tx.unpin(rp.block());
+      low.clear();
+      high.clear();
+   }
+
+   private void cover(String fldname, Constant val) {
+      Constant lo = low.get(fldname);
+      if (lo == null || val.compareTo(lo) < 0)
+         low.put(fldname, val);
+      Constant hi = high.get(fldname);
+      if (hi == null || val.compareTo(hi) > 0)
+         high.put(fldname, val);
+   }
+
+   private void coverUnsetFields() {
+      Schema sch = layout.schema();
+      for (String fldname : unsetFields)
+         cover(fldname, (sch.type(fldname) == INTEGER) ? new Constant(0) : new Constant(""));
+      unsetFields.clear();
+   }
+}
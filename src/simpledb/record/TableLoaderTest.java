@@ -0,0 +1,116 @@
+package simpledb.record;
+
+import simpledb.log.LogMgr;
+import simpledb.parse.Parser;
+import simpledb.query.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+public class TableLoaderTest {
+   private static SimpleDB db;
+   private static Layout layout;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("tableloadertest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("a");
+      sch.addStringField("b", 9);
+      layout = new Layout(sch);
+
+      // the same records, inserted through a table scan and loaded
+      LogMgr lm = db.logMgr();
+      int start = lm.latestLSN();
+      long time = System.nanoTime();
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T1", layout);
+      for (int i=0; i<5000; i++) {
+         ts.insert();
+         ts.setInt("a", i);
+         ts.setString("b", "rec" + i);
+      }
+      ts.close();
+      tx.commit();
+      print("inserted", lm.latestLSN() - start, System.nanoTime() - time);
+
+      start = lm.latestLSN();
+      time = System.nanoTime();
+      tx = db.newTx();
+      TableLoader tl = new TableLoader(tx, "T2", layout);
+      for (int i=0; i<5000; i++) {
+         tl.insert();
+         tl.setInt("a", i);
+         tl.setString("b", "rec" + i);
+      }
+      tl.close();
+      tx.commit();
+      print("loaded", lm.latestLSN() - start, System.nanoTime() - time);
+      System.out.println("same records: " + sameRecords("T1", "T2")
+            + "; blocks: " + size("T1") + " inserted, " + size("T2") + " loaded");
+
+      // a snapshot does not see an uncommitted load,
+      // and a rollback empties the loaded blocks
+      tx = db.newTx();
+      tl = new TableLoader(tx, "T2", layout);
+      for (int i=0; i<1000; i++) {
+         tl.insert();
+         tl.setInt("a", -i);
+      }
+      tl.close();
+      Transaction snap = db.newSnapshotTx();
+      System.out.println("during a load of 1000 more: " + count(tx, "T2", "a = a")
+            + " records for the loader, " + count(snap, "T2", "a = a") + " for a snapshot");
+      snap.commit();
+      tx.rollback();
+      tx = db.newTx();
+      System.out.println("after rolling it back: " + count(tx, "T2", "a = a")
+            + " records in " + size("T2") + " blocks");
+
+      // the zone map of the loaded blocks is set
+      db.bufferMgr().resetStats();
+      System.out.println("a > 4900: " + count(tx, "T2", "a > 4900") + " records, "
+            + db.bufferMgr().misses() + " blocks read");
+      tx.commit();
+   }
+
+   private static void print(String msg, int logbytes, long nanos) {
+      System.out.println("5000 records " + msg + ": " + logbytes + " log bytes, "
+            + nanos / 1000000 + " ms");
+   }
+
+   private static boolean sameRecords(String tbl1, String tbl2) {
+      Transaction tx = db.newTx();
+      TableScan s1 = new TableScan(tx, tbl1, layout);
+      TableScan s2 = new TableScan(tx, tbl2, layout);
+      boolean same = true;
+      boolean more1 = s1.next(), more2 = s2.next();
+      while (more1 && more2) {
+         same = same && s1.getInt("a") == s2.getInt("a")
+               && s1.getString("b").equals(s2.getString("b"));
+         more1 = s1.next();
+         more2 = s2.next();
+      }
+      s1.close();
+      s2.close();
+      tx.commit();
+      return same && !more1 && !more2;
+   }
+
+   private static int count(Transaction tx, String tblname, String cond) {
+      Predicate pred = new Parser(cond).predicate();
+      TableScan ts = new TableScan(tx, tblname, layout);
+      ts.restrictTo(pred);
+      Scan s = new SelectScan(ts, pred);
+      int n = 0;
+      while (s.next())
+         n++;
+      s.close();
+      return n;
+   }
+
+   private static int size(String tblname) {
+      Transaction tx = db.newTx();
+      int n = tx.size(tblname + ".tbl");
+      tx.commit();
+      return n;
+   }
+}
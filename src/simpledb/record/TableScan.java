@@ -1,6 +1,7 @@
 package simpledb.record;
 
 import static java.sql.Types.INTEGER;
+import java.util.*;
 import simpledb.file.BlockId;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
@@ -8,6 +9,14 @@ import simpledb.tx.Transaction;
 /**
  * Provides the abstraction of an arbitrarily large array
  * of records.
+ * A scan that moves through the records sequentially
+ * locks the whole table in shared mode, while a scan
+ * that moves to a record by its RID, or inserts records,
+ * locks individual records.
+ * A sequential scan that has been restricted to a predicate
+ * skips the blocks that the table's zone map shows cannot
+ * contain a record satisfying it; an unrestricted scan
+ * does not read the zone map at all.
  * @author sciore
  */
 public class TableScan implements UpdateScan {
@@ -15,13 +24,19 @@ public class TableScan implements UpdateScan {
    private Layout layout;
    private RecordPage rp;
    private String filename;
+   private FreeSpaceMap fsm;
+   private ZoneMap zm;
+   private Predicate pred = null;
+   private Set<String> unsetFields = new HashSet<>();
    private int currentslot;
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
       this.tx = tx;
       this.layout = layout;
       filename = tblname + ".tbl";
-      if (tx.size(filename) == 0)
+      fsm = new FreeSpaceMap(tx, tblname);
+      zm = new ZoneMap(tx, tblname, layout);
+      if (tx.size(filename) == 0 && !tx.isReadOnly())
          moveToNewBlock();
       else 
          moveToBlock(0);
@@ -34,11 +49,16 @@ public class TableScan implements UpdateScan {
    }
 
    public boolean next() {
+      tx.sLockTable(filename);
       currentslot = rp.nextAfter(currentslot);
       while (currentslot < 0) {
-         if (atLastBlock())
+         int blknum = rp.block().number() + 1;
+         int size = tx.size(filename);
+         while (pred != null && blknum < size && zm.canSkip(blknum, pred))
+            blknum++;
+         if (blknum >= size)
             return false;
-         moveToBlock(rp.block().number()+1);
+         moveToBlock(blknum);
          currentslot = rp.nextAfter(currentslot);
       }
       return true;
@@ -64,6 +84,7 @@ public class TableScan implements UpdateScan {
    }
 
    public void close() {
+      coverUnsetFields();
       if (rp != null)
          tx.unpin(rp.block());
    }
@@ -71,10 +92,14 @@ public class TableScan implements UpdateScan {
    // Methods that implement UpdateScan
 
    public void setInt(String fldname, int val) {
+      zm.cover(rp.block().number(), fldname, new Constant(val));
+      unsetFields.remove(fldname);
       rp.setInt(currentslot, fldname, val);
    }
    
    public void setString(String fldname, String val) {
+      zm.cover(rp.block().number(), fldname, new Constant(val));
+      unsetFields.remove(fldname);
       rp.setString(currentslot, fldname, val);
    }
 
@@ -85,28 +110,77 @@ public class TableScan implements UpdateScan {
          setString(fldname, val.asString());
    }
 
+   /**
+    * Insert a new record into a block that has room for it,
+    * as found by the table's free-space map, appending a new
+    * block if necessary. The cost of an insertion therefore
+    * does not depend on the size of the table.
+    * A block that turns out to be full is recorded as such,
+    * until the insertions into it are rolled back.
+    * A block whose empty slots are locked by other transactions,
+    * such as the slots of uncommitted deletions, is passed over
+    * for the next block with room, so that concurrent inserters
+    * are not all held up by the first such block.
+    * The fields of the new record that are not set before the scan
+    * moves on keep their default values, which the zone map then covers.
+    */
    public void insert() {
-      currentslot = rp.insertAfter(currentslot);
-      while (currentslot < 0) {
-         if (atLastBlock()) 
+      coverUnsetFields();
+      int blknum = fsm.blockWithRoom(tx.size(filename));
+      boolean passedBusy = false;
+      while (true) {
+         if (blknum < 0) {
             moveToNewBlock();
-         else 
-            moveToBlock(rp.block().number()+1);
-         currentslot = rp.insertAfter(currentslot);
+            fsm.hasRoom(rp.block().number());
+         }
+         else if (blknum != rp.block().number())
+            moveToBlock(blknum);
+         currentslot = rp.insertAfter(-1);
+         if (currentslot >= 0) {
+            fsm.inserted(rp.block().number());
+            unsetFields.addAll(layout.schema().fields());
+            return;
+         }
+         int current = rp.block().number();
+         if (currentslot == RecordPage.BUSY)
+            passedBusy = true;
+         else
+            fsm.full(current);
+         if (passedBusy)
+            blknum = fsm.nextBlockWithRoom(current, tx.size(filename));
+         else
+            blknum = fsm.blockWithRoom(tx.size(filename));
       }
    }
 
+   /**
+    * Delete the current record, and record in the
+    * free-space map that its block has room.
+    */
    public void delete() {
       rp.delete(currentslot);
+      fsm.hasRoom(rp.block().number());
    }
 
    public void moveToRid(RID rid) {
       close();
       BlockId blk = new BlockId(filename, rid.blockNumber());
-      rp = new RecordPage(tx, blk, layout);
+      rp = newRecordPage(blk);
       currentslot = rid.slot();
    }
 
+   /**
+    * Restrict the sequential scan to the records that may satisfy
+    * the specified predicate, so that it skips the blocks whose
+    * zone map shows that none of their records can.
+    * Records of the other blocks are returned whether or not they
+    * satisfy it, and so the caller must still test each record.
+    * @param pred the selection predicate
+    */
+   public void restrictTo(Predicate pred) {
+      this.pred = pred;
+   }
+
    public RID getRid() {
       return new RID(rp.block().number(), currentslot);
    }
@@ -116,19 +190,36 @@ public class TableScan implements UpdateScan {
    private void moveToBlock(int blknum) {
       close();
       BlockId blk = new BlockId(filename, blknum);
-      rp = new RecordPage(tx, blk, layout);
+      rp = newRecordPage(blk);
       currentslot = -1;
    }
 
    private void moveToNewBlock() {
       close();
       BlockId blk = tx.append(filename);
-      rp = new RecordPage(tx, blk, layout);
+      zm.reset(blk.number());
+      rp = newRecordPage(blk);
       rp.format();
       currentslot = -1;
    }
 
-   private boolean atLastBlock() {
-      return rp.block().number() == tx.size(filename) - 1;
+   private RecordPage newRecordPage(BlockId blk) {
+      if (layout.isSlotted())
+         return new SlottedRecordPage(tx, blk, layout);
+      else
+         return new RecordPage(tx, blk, layout);
+   }
+
+   /**
+    * Widen the zone map to cover the default values of
+    * the fields of the last inserted record that were not set.
+    */
+   private void coverUnsetFields() {
+      Schema sch = layout.schema();
+      for (String fldname : unsetFields) {
+         Constant val = (sch.type(fldname) == INTEGER) ? new Constant(0) : new Constant("");
+         zm.cover(rp.block().number(), fldname, val);
+      }
+      unsetFields.clear();
    }
 }
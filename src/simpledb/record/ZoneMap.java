@@ -0,0 +1,215 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import java.util.*;
+import simpledb.file.*;
+import simpledb.query.*;
+import simpledb.tx.Transaction;
+
+/**
+ * The zone map of a table, which records for each block of
+ * the table the lowest and highest value of each field,
+ * so that a selection can skip the blocks whose records
+ * cannot satisfy its predicate.
+ * <p>
+ * The map is stored in its own file, with an entry for each
+ * block of the table. An entry holds a state, followed by
+ * the bounds of each field in the order of their offsets.
+ * The bounds of an integer field are integers; the bounds of a
+ * string field are its first four bytes, so that a bound on
+ * a string is approximate but never wrong.
+ * A block's entry becomes {@link #VALID}, with bounds that contain
+ * nothing, when the block is appended, or with the bounds of its
+ * values when a bulk load fills it; an entry that is still
+ * {@link #UNKNOWN}, such as an entry of a block appended
+ * before the table had a map, never lets its block be skipped.
+ * <p>
+ * The bounds of a block only ever widen, each before a value
+ * outside them is written to the block, so they contain every value
+ * that the block holds, along with values that were deleted,
+ * overwritten or rolled back.
+ * Like the free-space map, the map is therefore read without locks,
+ * and its changes are redone after a crash but not undone
+ * by a rollback. Bounds are widened under a single monitor,
+ * which is rarely needed once a block's bounds have settled.
+ */
+class ZoneMap {
+   static final int UNKNOWN = 0, VALID = 1;
+   private static final Object widening = new Object();
+   private Transaction tx;
+   private Layout layout;
+   private String filename;
+   private Map<String,Integer> fieldIndexes = new HashMap<>();
+   private int entrySize, entriesPerBlock;
+
+   /**
+    * Create the zone map of the specified table.
+    * A temporary table, which is never selected from more than once,
+    * has no zone map, nor does a table with too many fields
+    * for an entry to fit in a block.
+    * @param tx the transaction
+    * @param tblname the name of the table
+    * @param layout the layout of the table's records
+    */
+   ZoneMap(Transaction tx, String tblname, Layout layout) {
+      this.tx = tx;
+      this.layout = layout;
+      filename = tblname + ".zm";
+      List<String> fields = new ArrayList<>(layout.schema().fields());
+      fields.sort(Comparator.comparingInt(layout::offset));
+      for (int i=0; i<fields.size(); i++)
+         fieldIndexes.put(fields.get(i), i);
+      entrySize = Integer.BYTES * (1 + 2 * fields.size());
+      entriesPerBlock = FileMgr.isTempFile(filename) ? 0 : tx.blockSize() / entrySize;
+   }
+
+   /**
+    * Record that the specified block has just been appended,
+    * and so holds no values.
+    * @param blknum the number of the block
+    */
+   void reset(int blknum) {
+      if (entriesPerBlock == 0)
+         return;
+      BlockId blk = block(blknum);
+      tx.pin(blk);
+      int pos = offset(blknum);
+      for (String fldname : fieldIndexes.keySet()) {
+         int fldpos = pos + boundsOffset(fldname);
+         boolean isInt = layout.schema().type(fldname) == INTEGER;
+         tx.setHint(blk, fldpos, isInt ? Integer.MAX_VALUE : -1);
+         tx.setHint(blk, fldpos + Integer.BYTES, isInt ? Integer.MIN_VALUE : 0);
+      }
+      tx.setHint(blk, pos, VALID);
+      tx.unpin(blk);
+   }
+
+   /**
+    * Record the bounds of the values in the specified block,
+    * which has just been appended and filled in one go,
+    * so that its values are known before they can be seen.
+    * @param blknum the number of the block
+    * @param low the lowest value of each field in the block
+    * @param high the highest value of each field in the block
+    */
+   void set(int blknum, Map<String,Constant> low, Map<String,Constant> high) {
+      if (entriesPerBlock == 0)
+         return;
+      BlockId blk = block(blknum);
+      tx.pin(blk);
+      int pos = offset(blknum);
+      for (String fldname : fieldIndexes.keySet()) {
+         int fldpos = pos + boundsOffset(fldname);
+         tx.setHint(blk, fldpos, encode(fldname, low.get(fldname)));
+         tx.setHint(blk, fldpos + Integer.BYTES, encode(fldname, high.get(fldname)));
+      }
+      tx.setHint(blk, pos, VALID);
+      tx.unpin(blk);
+   }
+
+   /**
+    * Widen the bounds of the specified field of the block
+    * to contain the specified value, if necessary.
+    * This method must be called before the value is written.
+    * @param blknum the number of the block
+    * @param fldname the name of the field
+    * @param val the value about to be written
+    */
+   void cover(int blknum, String fldname, Constant val) {
+      if (entriesPerBlock == 0)
+         return;
+      BlockId blk = block(blknum);
+      tx.pin(blk);
+      int fldpos = offset(blknum) + boundsOffset(fldname);
+      int v = encode(fldname, val);
+      if (!contains(blk, fldpos, fldname, v)) {
+         synchronized (widening) {
+            if (compare(fldname, v, tx.getHint(blk, fldpos)) < 0)
+               tx.setHint(blk, fldpos, v);
+            if (compare(fldname, v, tx.getHint(blk, fldpos + Integer.BYTES)) > 0)
+               tx.setHint(blk, fldpos + Integer.BYTES, v);
+         }
+      }
+      tx.unpin(blk);
+   }
+
+   /**
+    * Return true if the bounds of the specified block
+    * show that none of its records can satisfy the predicate.
+    * @param blknum the number of the block
+    * @param pred the selection predicate
+    * @return true if the block can be skipped
+    */
+   boolean canSkip(int blknum, Predicate pred) {
+      if (entriesPerBlock == 0)
+         return false;
+      BlockId blk = block(blknum);
+      tx.pin(blk);
+      int pos = offset(blknum);
+      Map<String,Constant> low = new HashMap<>();
+      Map<String,Constant> high = new HashMap<>();
+      if (tx.getHint(blk, pos) == VALID) {
+         for (String fldname : fieldIndexes.keySet()) {
+            int fldpos = pos + boundsOffset(fldname);
+            int lo = tx.getHint(blk, fldpos);
+            int hi = tx.getHint(blk, fldpos + Integer.BYTES);
+            if (compare(fldname, lo, hi) <= 0) {
+               low.put(fldname, decode(fldname, lo, false));
+               high.put(fldname, decode(fldname, hi, true));
+            }
+         }
+      }
+      tx.unpin(blk);
+      return !low.isEmpty() && !pred.isSatisfiable(low, high);
+   }
+
+   private boolean contains(BlockId blk, int fldpos, String fldname, int v) {
+      return compare(fldname, v, tx.getHint(blk, fldpos)) >= 0
+            && compare(fldname, v, tx.getHint(blk, fldpos + Integer.BYTES)) <= 0;
+   }
+
+   private int encode(String fldname, Constant val) {
+      if (layout.schema().type(fldname) == INTEGER)
+         return val.asInt();
+      byte[] b = val.asString().getBytes(Page.CHARSET);
+      int prefix = 0;
+      for (int i=0; i<Integer.BYTES; i++)
+         prefix = (prefix << 8) | (i < b.length ? b[i] & 0xff : 0);
+      return prefix;
+   }
+
+   /**
+    * Return a constant that bounds the values of the field.
+    * The upper bound of a string field follows its prefix
+    * with a character greater than any stored one.
+    */
+   private Constant decode(String fldname, int v, boolean upper) {
+      if (layout.schema().type(fldname) == INTEGER)
+         return new Constant(v);
+      StringBuilder sb = new StringBuilder();
+      for (int shift=24; shift>=0 && ((v >>> shift) & 0xff) != 0; shift-=8)
+         sb.append((char) ((v >>> shift) & 0xff));
+      if (upper)
+         sb.append(Character.MAX_VALUE);
+      return new Constant(sb.toString());
+   }
+
+   private int compare(String fldname, int v1, int v2) {
+      if (layout.schema().type(fldname) == INTEGER)
+         return Integer.compare(v1, v2);
+      else
+         return Integer.compareUnsigned(v1, v2);
+   }
+
+   private BlockId block(int blknum) {
+      return new BlockId(filename, blknum / entriesPerBlock);
+   }
+
+   private int offset(int blknum) {
+      return (blknum % entriesPerBlock) * entrySize;
+   }
+
+   private int boundsOffset(String fldname) {
+      return Integer.BYTES * (1 + 2 * fieldIndexes.get(fldname));
+   }
+}
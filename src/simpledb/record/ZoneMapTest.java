@@ -0,0 +1,83 @@
+package simpledb.record;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.parse.Parser;
+import simpledb.query.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+public class ZoneMapTest {
+   private static SimpleDB db;
+   private static Layout layout;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("zonemaptest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("id");
+      sch.addStringField("sname", 10);
+      sch.addIntField("gradyear");
+      layout = new Layout(sch);
+
+      // a time-ordered table: later records have later years
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "student", layout);
+      for (int i=0; i<2000; i++) {
+         ts.insert();
+         ts.setInt("id", i);
+         ts.setString("sname", "s" + (char) ('a' + i % 26) + i);
+         ts.setInt("gradyear", 1900 + i / 16);
+      }
+      ts.close();
+      System.out.println("table has " + tx.size("student.tbl") + " blocks");
+      tx.commit();
+
+      // the unrestricted scan reads every block
+      run("gradyear > 2020");
+      run("gradyear = 1950");
+      run("2000 >= gradyear and id > 1500");
+      run("sname = 'sz25'");
+      run("gradyear <> 1950");
+
+      // a rolled-back update widens the bounds, but never
+      // narrows them, and an unset field is covered by its default
+      tx = db.newTx();
+      ts = new TableScan(tx, "student", layout);
+      ts.moveToRid(new RID(3, 0));
+      ts.setInt("gradyear", 3000);
+      ts.close();
+      tx.rollback();
+      tx = db.newTx();
+      ts = new TableScan(tx, "student", layout);
+      ts.insert();
+      ts.setInt("id", 2000);
+      ts.close();
+      tx.commit();
+      run("gradyear > 2020");
+      run("gradyear = 0");
+   }
+
+   private static void run(String cond) {
+      Predicate pred = new Parser(cond).predicate();
+      int[] all = count(pred, false);
+      int[] restricted = count(pred, true);
+      System.out.println(cond + ": " + restricted[0] + " records (" + all[0] + " unrestricted), "
+            + restricted[1] + " blocks read (" + all[1] + " unrestricted)");
+   }
+
+   private static int[] count(Predicate pred, boolean restrict) {
+      BufferMgr bm = db.bufferMgr();
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "student", layout);
+      if (restrict)
+         ts.restrictTo(pred);
+      bm.resetStats();
+      Scan s = new SelectScan(ts, pred);
+      int n = 0;
+      while (s.next())
+         n++;
+      s.close();
+      int reads = (int) bm.misses();
+      tx.commit();
+      return new int[] {n, reads};
+   }
+}
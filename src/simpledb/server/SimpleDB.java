@@ -4,8 +4,12 @@ import java.io.File;
 import simpledb.file.FileMgr;
 import simpledb.index.planner.IndexUpdatePlanner;
 import simpledb.log.LogMgr;
+import simpledb.buffer.BufferFlusher;
 import simpledb.buffer.BufferMgr;
+import simpledb.tx.Checkpointer;
 import simpledb.tx.Transaction;
+import simpledb.tx.recovery.RecoveryMgr;
+import simpledb.tx.concurrency.ConcurrencyMgr;
 import simpledb.metadata.MetadataMgr;
 import simpledb.opt.HeuristicQueryPlanner;
 import simpledb.plan.*;
@@ -19,12 +23,26 @@ public class SimpleDB {
    public static int BLOCK_SIZE = 400;
    public static int BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static String BUFFER_POLICY = "lru";
+   public static boolean FORCE_AT_COMMIT = false;
+   public static long GROUP_COMMIT_WAIT = 0; // microseconds
+   public static int LOG_SEGMENT_BLOCKS = 256;
+   public static String LOG_ARCHIVE_DIR = null; // null deletes old log segments
+   public static double CLEAN_FRACTION = 0.5;
+   public static long FLUSH_INTERVAL = 100; // milliseconds
+   public static long CHECKPOINT_INTERVAL = 60000; // milliseconds
+   public static int READ_AHEAD = 0; // blocks; 0 disables read-ahead
+   public static long LOCK_TIMEOUT = 10000; // milliseconds
+   public static int LOCK_ESCALATION = 1000; // record and block locks per table
+   public static String IMPORT_DIR = null; // where network clients may copy from; null forbids it
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
    private  LogMgr      lm;
    private  MetadataMgr mdm;
    private  Planner planner;
+   private  BufferFlusher flusher;
+   private  Checkpointer checkpointer;
 
    /**
     * A constructor useful for debugging.
@@ -33,19 +51,52 @@ public class SimpleDB {
     * @param buffsize the number of buffers
     */
    public SimpleDB(String dirname, int blocksize, int buffsize) {
+      this(dirname, blocksize, buffsize, false);
+   }
+
+   /**
+    * A constructor useful for debugging, which can
+    * also choose memory-mapped file I/O.
+    * @param dirname the name of the database directory
+    * @param blocksize the block size
+    * @param buffsize the number of buffers
+    * @param mapped true if the database files should be memory-mapped
+    */
+   public SimpleDB(String dirname, int blocksize, int buffsize, boolean mapped) {
       File dbDirectory = new File(dirname);
-      fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
-      bm = new BufferMgr(fm, lm, buffsize); 
+      fm = new FileMgr(dbDirectory, blocksize, mapped);
+      lm = new LogMgr(fm, LOG_FILE, GROUP_COMMIT_WAIT, LOG_SEGMENT_BLOCKS);
+      if (LOG_ARCHIVE_DIR != null)
+         lm.setArchiveDirectory(new File(LOG_ARCHIVE_DIR));
+      bm = new BufferMgr(fm, lm, buffsize, BUFFER_POLICY); 
+      RecoveryMgr.setForceAtCommit(FORCE_AT_COMMIT);
+      ConcurrencyMgr.setLockTimeout(LOCK_TIMEOUT);
+      ConcurrencyMgr.setEscalationThreshold(LOCK_ESCALATION);
    }
    
    /**
     * A simpler constructor for most situations. Unlike the
-    * 3-arg constructor, it also initializes the metadata tables.
+    * 3-arg constructor, it also initializes the metadata tables
+    * starts the background buffer flusher and checkpointer,
+    * and turns on read-ahead if {@link #READ_AHEAD} is positive.
+    * Read-ahead is off by default, since it only pays off
+    * when reads wait for the disk and a processor is free
+    * to issue them; on cached files it slows scans down.
     * @param dirname the name of the database directory
     */
    public SimpleDB(String dirname) {
-      this(dirname, BLOCK_SIZE, BUFFER_SIZE); 
+      this(dirname, false);
+   }
+
+   /**
+    * Like the 1-arg constructor, but chooses whether
+    * the database files are memory-mapped.
+    * Mapping suits read-mostly databases that fit in memory.
+    * @param dirname the name of the database directory
+    * @param mapped true if the database files should be memory-mapped
+    */
+   public SimpleDB(String dirname, boolean mapped) {
+      this(dirname, BLOCK_SIZE, BUFFER_SIZE, mapped); 
       Transaction tx = newTx();
       boolean isnew = fm.isNew();
       if (isnew)
@@ -61,6 +112,11 @@ public class SimpleDB {
       	UpdatePlanner up = new IndexUpdatePlanner(mdm);
       planner = new Planner(qp, up);
       tx.commit();
+      flusher = new BufferFlusher(bm, CLEAN_FRACTION, FLUSH_INTERVAL);
+      flusher.start();
+      checkpointer = new Checkpointer(fm, bm, lm, CHECKPOINT_INTERVAL);
+      checkpointer.start();
+      bm.enableReadAhead(READ_AHEAD);
    }
    
    /**
@@ -70,6 +126,15 @@ public class SimpleDB {
    public Transaction newTx() {
       return new Transaction(fm, lm, bm);
    }
+
+   /**
+    * Creates a read-only transaction that reads from a snapshot
+    * of the database, without taking locks or writing to the log.
+    * @see Transaction#Transaction(FileMgr, LogMgr, BufferMgr, boolean)
+    */
+   public Transaction newSnapshotTx() {
+      return new Transaction(fm, lm, bm, true);
+   }
    
    public MetadataMgr mdMgr() {
       return mdm;
@@ -89,4 +154,7 @@ public class SimpleDB {
    public BufferMgr bufferMgr() {
       return bm;
    }   
+   public Checkpointer checkpointer() {
+      return checkpointer;
+   }   
  }
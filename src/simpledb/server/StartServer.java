@@ -8,6 +8,9 @@ public class StartServer {
    public static void main(String args[]) throws Exception {
       // configure and initialize the database
       String dirname = (args.length == 0) ? "studentdb" : args[0];
+      // clients may copy only from files in the import directory, if one is given
+      if (args.length > 1)
+         SimpleDB.IMPORT_DIR = args[1];
       SimpleDB db = new SimpleDB(dirname);
       
       // create a registry specific for the server on the default port
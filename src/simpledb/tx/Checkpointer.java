@@ -0,0 +1,100 @@
+package simpledb.tx;
+
+import java.util.*;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.recovery.*;
+
+/**
+ * A background thread that periodically writes a
+ * fuzzy checkpoint.
+ * A fuzzy checkpoint does not wait for transactions
+ * to finish or stop new ones from starting.
+ * Instead it records the oldest START record of the
+ * active transactions and the oldest recovery LSN of the
+ * dirty pages, which bound how much of the log recovery
+ * has to read.
+ * So that pages which stay in the pool do not hold that
+ * bound back, each checkpoint first writes the pages whose
+ * modifications predate the previous checkpoint.
+ * The pages written by the checkpoint, the buffer flusher and
+ * buffer replacement are not forced to disk when they are written,
+ * since the log can redo them; but once they leave the dirty-page
+ * table, the checkpoint no longer protects them.
+ * Every data file written since the last sync is therefore forced
+ * before the checkpoint record is written.
+ * After the checkpoint, the log segments that recovery
+ * no longer needs are removed.
+ */
+public class Checkpointer extends Thread {
+   private FileMgr fm;
+   private BufferMgr bm;
+   private LogMgr lm;
+   private long interval;
+   private int lastCheckpointLSN = 0;
+
+   /**
+    * Creates a checkpointer.
+    * The thread is a daemon, and must be started by the caller.
+    * @param interval the number of milliseconds between checkpoints
+    */
+   public Checkpointer(FileMgr fm, BufferMgr bm, LogMgr lm, long interval) {
+      super("checkpointer");
+      this.fm = fm;
+      this.bm = bm;
+      this.lm = lm;
+      this.interval = interval;
+      setDaemon(true);
+   }
+
+   public void run() {
+      try {
+         while (!isInterrupted()) {
+            Thread.sleep(interval);
+            checkpoint();
+         }
+      }
+      catch(InterruptedException e) {
+         // shutdown was requested
+      }
+   }
+
+   /**
+    * Writes a fuzzy checkpoint.
+    * The active-transaction table is read before the
+    * dirty-page table, so that a modification that is logged
+    * but not yet in its buffer when the dirty pages are
+    * collected belongs to a transaction in the table.
+    * The data files are forced after the dirty-page table
+    * is read, so that every page missing from it because it was
+    * written is on disk before the checkpoint record is.
+    * @return the LSN of the checkpoint record
+    */
+   public synchronized int checkpoint() {
+      bm.flushOlderThan(lastCheckpointLSN);
+      int beginLSN = lm.latestLSN();
+      int startLSN = min(RecoveryMgr.activeTransactions().values(), beginLSN);
+      int recLSN = min(bm.dirtyPages().values(), beginLSN);
+      fm.syncAll();
+      int lsn = CheckpointRecord.writeToLog(lm, startLSN, recLSN);
+      lm.flush(lsn);
+      lm.truncate(Math.min(startLSN, recLSN));
+      lastCheckpointLSN = beginLSN;
+      return lsn;
+   }
+
+   /**
+    * Stops the thread after its current checkpoint.
+    */
+   public void shutdown() {
+      interrupt();
+   }
+
+   private static int min(Collection<Integer> lsns, int dflt) {
+      int result = dflt;
+      for (int lsn : lsns)
+         result = Math.min(result, lsn);
+      return result;
+   }
+}
@@ -0,0 +1,80 @@
+package simpledb.tx;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+import simpledb.tx.concurrency.LockAbortException;
+
+public class DeadlockTest {
+   private static FileMgr fm;
+   private static LogMgr lm;
+   private static BufferMgr bm;
+   private static long start;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("deadlocktest", 400, 8);
+      fm = db.fileMgr();
+      lm = db.logMgr();
+      bm = db.bufferMgr();
+
+      // A and B each write one block and then read the other's
+      System.out.println("Crossed locks:");
+      run(new BlockId("testfile", 1), new BlockId("testfile", 2), true);
+      // A and B both read a block and then both upgrade to write it
+      System.out.println("Lock upgrades:");
+      run(new BlockId("testfile", 3), new BlockId("testfile", 3), false);
+   }
+
+   private static void run(BlockId blkA, BlockId blkB, boolean crossed) throws InterruptedException {
+      start = System.currentTimeMillis();
+      Thread a = new Thread(new Worker("A", blkA, blkB, crossed));
+      Thread b = new Thread(new Worker("B", blkB, blkA, crossed));
+      a.start();
+      Thread.sleep(100);
+      b.start();
+      a.join();
+      b.join();
+   }
+
+   static class Worker implements Runnable {
+      private String name;
+      private BlockId first, second;
+      private boolean crossed;
+
+      Worker(String name, BlockId first, BlockId second, boolean crossed) {
+         this.name = name;
+         this.first = first;
+         this.second = second;
+         this.crossed = crossed;
+      }
+
+      public void run() {
+         Transaction tx = new Transaction(fm, lm, bm);
+         try {
+            tx.pin(first);
+            tx.pin(second);
+            if (crossed)
+               tx.setInt(first, 0, 0, false);
+            else
+               tx.getInt(first, 0);
+            Thread.sleep(500);
+            if (crossed)
+               tx.getInt(second, 0);
+            else
+               tx.setInt(second, 0, 0, false);
+            tx.commit();
+            System.out.println("Tx " + name + ": commit after " + elapsed() + " ms");
+         }
+         catch(LockAbortException e) {
+            System.out.println("Tx " + name + ": " + e.getMessage() + " after " + elapsed() + " ms");
+            tx.rollback();
+         }
+         catch(InterruptedException e) {};
+      }
+   }
+
+   private static long elapsed() {
+      return (System.currentTimeMillis() - start) / 100 * 100;
+   }
+}
@@ -0,0 +1,89 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.record.*;
+
+public class GranularityTest {
+   private static SimpleDB db;
+   private static Layout layout;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.LOCK_ESCALATION = 50;
+      db = new SimpleDB("granularitytest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      layout = new Layout(sch);
+
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<100; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+      }
+      ts.close();
+      tx.commit();
+
+      // record locks: two updaters and an inserter share block 0
+      Transaction tx1 = db.newTx();
+      update(tx1, new RID(0, 0), -1);
+      Transaction tx2 = db.newTx();
+      update(tx2, new RID(0, 1), -2);
+      Transaction tx3 = db.newTx();
+      TableScan ts3 = new TableScan(tx3, "T", layout);
+      ts3.insert();
+      ts3.setInt("A", 100);
+      ts3.close();
+      System.out.println("two updates and an insert proceed concurrently");
+
+      // a scan locks the whole table, and so waits for all three
+      Transaction tx4 = db.newTx();
+      Thread scanner = start("scan", () -> System.out.println("scan sees " + count(tx4) + " records"));
+      Thread.sleep(500);
+      tx1.commit();
+      tx2.commit();
+      Thread.sleep(500);
+      System.out.println("scan still waiting: " + scanner.isAlive());
+      tx3.commit();
+      scanner.join();
+      tx4.commit();
+
+      // escalation: 60 record locks become a table xlock
+      Transaction tx5 = db.newTx();
+      for (int i=0; i<60; i++)
+         update(tx5, new RID(i / 49, i % 49), i);
+      Transaction tx6 = db.newTx();
+      Thread reader = start("read", () -> {
+         TableScan ts6 = new TableScan(tx6, "T", layout);
+         ts6.moveToRid(new RID(2, 0));
+         System.out.println("reader of an untouched record gets " + ts6.getInt("A"));
+         ts6.close();
+      });
+      Thread.sleep(500);
+      System.out.println("reader waiting for the escalated lock: " + reader.isAlive());
+      tx5.commit();
+      reader.join();
+      tx6.commit();
+   }
+
+   private static void update(Transaction tx, RID rid, int val) {
+      TableScan ts = new TableScan(tx, "T", layout);
+      ts.moveToRid(rid);
+      ts.setInt("A", val);
+      ts.close();
+   }
+
+   private static int count(Transaction tx) {
+      TableScan ts = new TableScan(tx, "T", layout);
+      int n = 0;
+      while (ts.next())
+         n++;
+      ts.close();
+      return n;
+   }
+
+   private static Thread start(String name, Runnable r) {
+      Thread t = new Thread(r, name);
+      t.start();
+      return t;
+   }
+}
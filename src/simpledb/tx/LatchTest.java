@@ -0,0 +1,81 @@
+package simpledb.tx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import simpledb.server.SimpleDB;
+import simpledb.record.*;
+
+public class LatchTest {
+   private static final int NUM_THREADS = 8;
+   private static final int UPDATES = 2000;
+   private static SimpleDB db;
+   private static Layout layout;
+   private static AtomicInteger misreads = new AtomicInteger();
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("latchtest", 400, 8);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      sch.addStringField("B", 12);
+      layout = new Layout(sch);
+
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<NUM_THREADS; i++) {
+         ts.insert();
+         ts.setInt("A", 0);
+         ts.setString("B", "");
+      }
+      ts.close();
+      tx.commit();
+
+      // each thread updates its own record of block 0, while
+      // checkpoints write the shared page to disk
+      Thread[] threads = new Thread[NUM_THREADS];
+      for (int t=0; t<NUM_THREADS; t++) {
+         int slot = t;
+         threads[t] = new Thread(() -> {
+            for (int i=1; i<=UPDATES; i++) {
+               Transaction utx = db.newTx();
+               TableScan uts = new TableScan(utx, "T", layout);
+               uts.moveToRid(new RID(0, slot));
+               uts.setString("B", value(slot, i));
+               uts.setInt("A", i);
+               for (int j=0; j<10; j++)
+                  if (!uts.getString("B").equals(value(slot, i)) || uts.getInt("A") != i)
+                     misreads.incrementAndGet();
+               uts.close();
+               if (i % 2 == 0)
+                  utx.commit();
+               else
+                  utx.rollback();
+            }
+         });
+         threads[t].start();
+      }
+      Checkpointer cp = new Checkpointer(db.fileMgr(), db.bufferMgr(), db.logMgr(), 0);
+      boolean running = true;
+      while (running) {
+         cp.checkpoint();
+         running = false;
+         for (Thread t : threads)
+            running |= t.isAlive();
+      }
+
+      int bad = 0;
+      tx = db.newTx();
+      ts = new TableScan(tx, "T", layout);
+      for (int t=0; t<NUM_THREADS; t++) {
+         ts.moveToRid(new RID(0, t));
+         if (ts.getInt("A") != UPDATES || !ts.getString("B").equals(value(t, UPDATES)))
+            bad++;
+      }
+      ts.close();
+      tx.commit();
+      System.out.println(NUM_THREADS * UPDATES + " concurrent updates to one page; "
+            + misreads.get() + " misreads, " + bad + " records with wrong values");
+   }
+
+   private static String value(int slot, int i) {
+      return "r" + slot + "-" + i;
+   }
+}
@@ -0,0 +1,98 @@
+package simpledb.tx;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+public class SnapshotTest {
+   private static BlockId blk = new BlockId("testfile", 1);
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("snapshottest", 400, 8);
+
+      Transaction tx1 = db.newTx();
+      tx1.pin(blk);
+      tx1.setInt(blk, 80, 1, true);
+      tx1.setString(blk, 40, "one", true);
+      tx1.commit();
+
+      // tx2 holds an xlock on the block while the snapshots read it
+      Transaction tx2 = db.newTx();
+      tx2.pin(blk);
+      tx2.setInt(blk, 80, 2, true);
+      Transaction snap1 = db.newSnapshotTx();
+      print("snap1 while tx2 is active", snap1);
+      tx2.setString(blk, 40, "two", true);
+      tx2.commit();
+      print("snap1 after tx2 commits", snap1);
+
+      Transaction snap2 = db.newSnapshotTx();
+      print("snap2 after tx2 commits", snap2);
+
+      Transaction tx3 = db.newTx();
+      tx3.pin(blk);
+      tx3.setInt(blk, 80, 3, true);
+      tx3.setString(blk, 40, "three", true);
+      tx3.rollback();
+      Transaction tx4 = db.newTx();
+      tx4.pin(blk);
+      tx4.setInt(blk, 80, 4, true);
+      Transaction snap3 = db.newSnapshotTx();
+      tx4.commit();
+      print("snap3 after tx3 rolls back and tx4 commits", snap3);
+      print("snap2 at the end", snap2);
+
+      try {
+         snap2.setInt(blk, 80, 5, true);
+         System.out.println("error: snapshot modified the block");
+      }
+      catch(RuntimeException e) {
+         System.out.println("snap2 cannot modify: " + e.getMessage());
+      }
+      snap1.commit();
+      snap2.commit();
+      snap3.commit();
+
+      // transactions that lock records modify the block concurrently;
+      // a snapshot sees the committed update of tx7 to record 1,
+      // but not the earlier, uncommitted update of tx6 to record 0
+      Transaction tx5 = db.newTx();
+      tx5.pin(blk);
+      tx5.setInt(blk, 120, 10, true);
+      tx5.setInt(blk, 160, 20, true);
+      tx5.commit();
+      Transaction tx6 = db.newTx();
+      tx6.pin(blk);
+      tx6.xLockRecord(blk, 0);
+      tx6.setInt(blk, 120, 999, true);
+      Transaction tx7 = db.newTx();
+      tx7.pin(blk);
+      tx7.xLockRecord(blk, 1);
+      tx7.setInt(blk, 160, 21, true);
+      tx7.commit();
+      Transaction snap5 = db.newSnapshotTx();
+      snap5.pin(blk);
+      System.out.println("snap5 while tx6 is active: "
+            + snap5.getInt(blk, 120) + " " + snap5.getInt(blk, 160));
+      snap5.commit();
+      tx6.rollback();
+
+      // a snapshot transaction, even one that writes a temporary table,
+      // is read-only and does not touch the log
+      LogMgr lm = db.logMgr();
+      int lsn = lm.latestLSN();
+      long syncs = lm.syncs();
+      Transaction snap4 = db.newSnapshotTx();
+      print("snap4", snap4);
+      BlockId tempblk = snap4.append("tempsnapshot");
+      snap4.pin(tempblk);
+      snap4.setInt(tempblk, 0, 6, true);
+      snap4.commit();
+      System.out.println("log records written by snap4: " + (lm.latestLSN() - lsn)
+            + ", log syncs: " + (lm.syncs() - syncs));
+   }
+
+   private static void print(String msg, Transaction tx) {
+      tx.pin(blk);
+      System.out.println(msg + ": " + tx.getInt(blk, 80) + " " + tx.getString(blk, 40));
+   }
+}
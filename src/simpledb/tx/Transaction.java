@@ -1,5 +1,6 @@
 package simpledb.tx;
 
+import java.util.*;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.buffer.*;
@@ -21,6 +22,8 @@ public class Transaction {
    private FileMgr fm;
    private int txnum;
    private BufferList mybuffers;
+   private Snapshot snapshot = null;
+   private Map<Object,Runnable> rollbackActions = new LinkedHashMap<>();
    
    /**
     * Create a new transaction and its associated 
@@ -35,17 +38,39 @@ public class Transaction {
     * is called first.
     */
    public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm) {
+      this(fm, lm, bm, false);
+   }
+
+   /**
+    * Create a new transaction that optionally reads from
+    * a snapshot of the database.
+    * A snapshot transaction sees the database as it was
+    * when the transaction began, takes no locks on the
+    * blocks it reads, and so neither waits for
+    * nor delays any other transaction.
+    * It may not modify the database, except for
+    * temporary tables, which it reads and writes normally.
+    * A snapshot transaction is thus read-only, and writes
+    * nothing to the log: neither a start record, nor updates
+    * to its temporary tables, nor a commit record.
+    * Committing it does no disk I/O.
+    * @param snapshot true if the transaction should read from a snapshot
+    */
+   public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, boolean snapshot) {
       this.fm = fm;
       this.bm = bm;
       txnum       = nextTxNumber();
-      recoveryMgr = new RecoveryMgr(this, txnum, lm, bm);
-      concurMgr   = new ConcurrencyMgr();
+      recoveryMgr = new RecoveryMgr(this, txnum, lm, bm, snapshot);
+      concurMgr   = new ConcurrencyMgr(txnum);
       mybuffers = new BufferList(bm);
+      if (snapshot)
+         this.snapshot = recoveryMgr.snapshot();
    }
    
    /**
     * Commit the current transaction.
-    * Flush all modified buffers (and their log records),
+    * Flush the modified buffers that recovery could not redo
+    * (or all of them, if force-at-commit is enabled),
     * write and flush a commit record to the log,
     * release all locks, and unpin any pinned buffers.
     */
@@ -61,10 +86,13 @@ public class Transaction {
     * Undo any modified values,
     * flush those buffers,
     * write and flush a rollback record to the log,
+    * perform the actions registered with {@link #onRollback},
     * release all locks, and unpin any pinned buffers.
     */
    public void rollback() {
       recoveryMgr.rollback();
+      for (Runnable action : rollbackActions.values())
+         action.run();
       System.out.println("transaction " + txnum + " rolled back");
       concurMgr.release();
       mybuffers.unpinAll();
@@ -73,7 +101,8 @@ public class Transaction {
    /**
     * Flush all modified buffers.
     * Then go through the log, rolling back all
-    * uncommitted transactions.  Finally, 
+    * uncommitted transactions and redoing the
+    * committed ones.  Finally, 
     * write a quiescent checkpoint record to the log.
     * This method is called during system startup,
     * before user transactions begin.
@@ -83,6 +112,19 @@ public class Transaction {
       recoveryMgr.recover();
    }
    
+   /**
+    * Register an action to be performed if the transaction
+    * rolls back, after its modifications have been undone
+    * and before its locks are released.
+    * Such actions restore hints, which a rollback does not undo;
+    * an action whose key was already registered is ignored.
+    * @param key the identifier of the action
+    * @param action the action
+    */
+   public void onRollback(Object key, Runnable action) {
+      rollbackActions.putIfAbsent(key, action);
+   }
+
    /**
     * Pin the specified block.
     * The transaction manages the buffer for the client.
@@ -106,78 +148,300 @@ public class Transaction {
     * Return the integer value stored at the
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
-    * then it calls the buffer to retrieve the value.
+    * unless the transaction's locks on the block or
+    * its table already allow it to be read;
+    * then it retrieves the value from the buffer,
+    * holding the buffer's shared latch during the read.
+    * A snapshot transaction instead reads the value
+    * from its version of the block, without locking.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the integer stored at that offset
     */
    public int getInt(BlockId blk, int offset) {
+      if (readsSnapshot(blk.fileName()))
+         return snapshot.version(mybuffers.getBuffer(blk)).getInt(offset);
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      return buff.contents().getInt(offset);
+      buff.sLatch();
+      try {
+         return buff.contents().getInt(offset);
+      }
+      finally {
+         buff.sUnlatch();
+      }
    }
    
    /**
     * Return the string value stored at the
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
-    * then it calls the buffer to retrieve the value.
+    * unless the transaction's locks on the block or
+    * its table already allow it to be read;
+    * then it retrieves the value from the buffer,
+    * holding the buffer's shared latch during the read.
+    * A snapshot transaction instead reads the value
+    * from its version of the block, without locking.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the string stored at that offset
     */
    public String getString(BlockId blk, int offset) {
+      if (readsSnapshot(blk.fileName()))
+         return snapshot.version(mybuffers.getBuffer(blk)).getString(offset);
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      return buff.contents().getString(offset);
+      buff.sLatch();
+      try {
+         return buff.contents().getString(offset);
+      }
+      finally {
+         buff.sUnlatch();
+      }
    }
    
    /**
     * Store an integer at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
+    * The method first obtains an XLock on the block,
+    * unless the transaction's locks on the block or
+    * its table already allow it to be modified.
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
     * Finally, it calls the buffer to store the value,
     * passing in the LSN of the log record and the transaction's id. 
+    * The buffer is latched exclusively from the reading of the
+    * current value until the new value is stored, because other
+    * transactions may be modifying other records of the page.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
+      checkWritable(blk.fileName());
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
-      if (okToLog)
-         lsn = recoveryMgr.setInt(buff, offset, val);
-      Page p = buff.contents();
-      p.setInt(offset, val);
-      buff.setModified(txnum, lsn);
+      buff.xLatch();
+      try {
+         int lsn = -1;
+         if (okToLog)
+            lsn = recoveryMgr.setInt(buff, offset, val);
+         Page p = buff.contents();
+         p.setInt(offset, val);
+         buff.setModified(txnum, lsn);
+      }
+      finally {
+         buff.xUnlatch();
+      }
    }
    
    /**
     * Store a string at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
+    * The method first obtains an XLock on the block,
+    * unless the transaction's locks on the block or
+    * its table already allow it to be modified.
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
     * Finally, it calls the buffer to store the value,
     * passing in the LSN of the log record and the transaction's id. 
+    * The buffer is latched exclusively from the reading of the
+    * current value until the new value is stored, because other
+    * transactions may be modifying other records of the page.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setString(BlockId blk, int offset, String val, boolean okToLog) {
+      checkWritable(blk.fileName());
+      concurMgr.xLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      buff.xLatch();
+      try {
+         int lsn = -1;
+         if (okToLog)
+            lsn = recoveryMgr.setString(buff, offset, val);
+         Page p = buff.contents();
+         p.setString(offset, val);
+         buff.setModified(txnum, lsn);
+      }
+      finally {
+         buff.xUnlatch();
+      }
+   }
+
+   /**
+    * Return the hint stored at the specified offset
+    * of the specified block, which holds hints such as
+    * the entries of a free-space map.
+    * A hint is read without locking,
+    * holding only the buffer's shared latch.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @return the hint stored at that offset
+    */
+   public int getHint(BlockId blk, int offset) {
+      Buffer buff = mybuffers.getBuffer(blk);
+      buff.sLatch();
+      try {
+         return buff.contents().getInt(offset);
+      }
+      finally {
+         buff.sUnlatch();
+      }
+   }
+
+   /**
+    * Store a hint at the specified offset
+    * of the specified block.
+    * A hint is written without locking, because a wrong hint
+    * costs only time, and the change is logged so that it is
+    * redone after a crash, but it is not undone if the
+    * transaction rolls back.
+    * @param blk a reference to the disk block
+    * @param offset a byte offset within that block
+    * @param val the value to be stored
+    */
+   public void setHint(BlockId blk, int offset, int val) {
+      checkWritable(blk.fileName());
+      Buffer buff = mybuffers.getBuffer(blk);
+      buff.xLatch();
+      try {
+         int lsn = recoveryMgr.setHint(buff, offset, val);
+         buff.contents().setInt(offset, val);
+         buff.setModified(txnum, lsn);
+      }
+      finally {
+         buff.xUnlatch();
+      }
+   }
+
+   /**
+    * Begin filling the specified block, which the transaction
+    * has just appended, with modifications that are not logged
+    * individually. The buffer, which must be pinned, stays latched
+    * exclusively until {@link #logPageImage} is called, so that
+    * no snapshot sees the block partly filled.
+    * @param blk a reference to the disk block
+    */
+   public void beginPageImage(BlockId blk) {
+      checkWritable(blk.fileName());
       concurMgr.xLock(blk);
+      mybuffers.getBuffer(blk).xLatch();
+   }
+
+   /**
+    * Finish filling the specified block, by writing the image
+    * of its page to the log in place of its modifications,
+    * and release the buffer's exclusive latch.
+    * Since the block was empty before, the image can be
+    * undone by emptying the block again.
+    * @param blk a reference to the disk block
+    */
+   public void logPageImage(BlockId blk) {
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
-      if (okToLog)
-         lsn = recoveryMgr.setString(buff, offset, val);
-      Page p = buff.contents();
-      p.setString(offset, val);
-      buff.setModified(txnum, lsn);
+      try {
+         recoveryMgr.logPageImage(buff);
+      }
+      finally {
+         buff.xUnlatch();
+      }
+   }
+
+   /**
+    * Lock the specified table in shared mode,
+    * so that all of its records may be read
+    * without locking them individually.
+    * A snapshot transaction takes no lock.
+    * @param filename the name of the table's file
+    */
+   public void sLockTable(String filename) {
+      if (!readsSnapshot(filename))
+         concurMgr.sLockTable(filename);
+   }
+
+   /**
+    * Lock the specified table exclusively,
+    * so that all of its records may be read and modified
+    * without locking them individually.
+    * @param filename the name of the table's file
+    */
+   public void xLockTable(String filename) {
+      checkWritable(filename);
+      concurMgr.xLockTable(filename);
+   }
+
+   /**
+    * Declare that the transaction is about to modify
+    * individual records of the specified block.
+    * The transaction obtains an intention lock on the block,
+    * which allows it to read the block (in particular, to look
+    * for an empty slot) and to modify the records it xlocks.
+    * @param blk a reference to the disk block
+    */
+   public void ixLock(BlockId blk) {
+      checkWritable(blk.fileName());
+      concurMgr.ixLock(blk);
+   }
+
+   /**
+    * Lock the record in the specified slot of the block
+    * in shared mode, before reading it.
+    * A snapshot transaction takes no lock.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void sLockRecord(BlockId blk, int slot) {
+      if (!readsSnapshot(blk.fileName()))
+         concurMgr.sLockRecord(blk, slot);
+   }
+
+   /**
+    * Lock the record in the specified slot of the block
+    * exclusively, before modifying it.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void xLockRecord(BlockId blk, int slot) {
+      checkWritable(blk.fileName());
+      concurMgr.xLockRecord(blk, slot);
+   }
+
+   /**
+    * Lock the record in the specified slot of the block
+    * exclusively, if that can be done without waiting
+    * for another transaction.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    * @return true if the record is locked
+    */
+   public boolean tryXLockRecord(BlockId blk, int slot) {
+      checkWritable(blk.fileName());
+      return concurMgr.tryXLockRecord(blk, slot);
+   }
+
+   /**
+    * Lock the specified block exclusively, if that can be done
+    * without waiting for another transaction.
+    * @param blk a reference to the disk block
+    * @return true if the block is locked
+    */
+   public boolean tryXLock(BlockId blk) {
+      checkWritable(blk.fileName());
+      return concurMgr.tryXLock(blk);
+   }
+
+   /**
+    * Lock the specified block exclusively, before
+    * modifying it in ways that affect all of its records,
+    * such as moving them within the block.
+    * @param blk a reference to the disk block
+    */
+   public void xLock(BlockId blk) {
+      checkWritable(blk.fileName());
+      concurMgr.xLock(blk);
    }
 
    /**
@@ -185,12 +449,15 @@ public class Transaction {
     * This method first obtains an SLock on the 
     * "end of the file", before asking the file manager
     * to return the file size.
+    * A snapshot transaction takes no lock.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
    public int size(String filename) {
-      BlockId dummyblk = new BlockId(filename, END_OF_FILE);
-      concurMgr.sLock(dummyblk);
+      if (!readsSnapshot(filename)) {
+         BlockId dummyblk = new BlockId(filename, END_OF_FILE);
+         concurMgr.sLock(dummyblk);
+      }
       return fm.length(filename);
    }
    
@@ -203,19 +470,52 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public BlockId append(String filename) {
+      checkWritable(filename);
       BlockId dummyblk = new BlockId(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
       return fm.append(filename);
    }
    
+   /**
+    * Returns the number of bytes of each block that
+    * are available to the transaction, which excludes
+    * the page LSN at the end of the block.
+    * @return the usable size of a block
+    */
    public int blockSize() {
-      return fm.blockSize();
+      return fm.blockSize() - Buffer.PAGE_LSN_SIZE;
    }
    
    public int availableBuffs() {
       return bm.available();
    }
+
+   /**
+    * Returns true if the transaction is read-only,
+    * as snapshot transactions are.
+    * A read-only transaction cannot create the files
+    * of tables and indexes that do not yet exist,
+    * and must treat them as empty instead.
+    * @return true if the transaction is read-only
+    */
+   public boolean isReadOnly() {
+      return snapshot != null;
+   }
    
+   /**
+    * Returns true if reads of the specified file come from
+    * the transaction's snapshot; temporary tables are
+    * private to the transaction, and so are read directly.
+    */
+   private boolean readsSnapshot(String filename) {
+      return snapshot != null && !FileMgr.isTempFile(filename);
+   }
+
+   private void checkWritable(String filename) {
+      if (readsSnapshot(filename))
+         throw new RuntimeException("snapshot transaction cannot modify " + filename);
+   }
+
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       return nextTxNum;
@@ -2,50 +2,224 @@ package simpledb.tx.concurrency;
 
 import java.util.*;
 import simpledb.file.BlockId;
+import static simpledb.tx.concurrency.LockMode.*;
 
 /**
  * The concurrency manager for the transaction.
- * Each transaction has its own concurrency manager. 
- * The concurrency manager keeps track of which locks the 
+ * Each transaction has its own concurrency manager.
+ * The concurrency manager keeps track of which locks the
  * transaction currently has, and interacts with the
- * global lock table as needed. 
+ * global lock table as needed.
+ * <p>
+ * Locks form a hierarchy of tables (that is, files),
+ * blocks and records.
+ * Before locking a block or record, the transaction
+ * obtains the corresponding intention lock (IS or IX)
+ * on each enclosing item, and a lock on an item covers
+ * everything inside it: a scan of a table needs a single
+ * SLock on the table, while transactions that update
+ * different records of the same block do not conflict.
+ * A transaction that holds an intention lock on a block
+ * is accessing individual records of it, and is trusted
+ * to read and write only the records that it has locked;
+ * its reads and writes of the block need no further locks.
+ * <p>
+ * When a transaction holds too many block and record locks
+ * on the same table, they are escalated: the transaction
+ * locks the whole table, in shared mode if it only read
+ * those items and exclusively otherwise,
+ * and releases the finer-grained locks.
  * @author Edward Sciore
  */
 public class ConcurrencyMgr {
 
    /**
-    * The global lock table. This variable is static because 
+    * The global lock table. This variable is static because
     * all transactions share the same table.
     */
    private static LockTable locktbl = new LockTable();
-   private Map<BlockId,String> locks  = new HashMap<BlockId,String>();
+   private static int escalationThreshold = 1000;
+   private Map<Object,LockMode> locks  = new HashMap<Object,LockMode>();
+   private Map<String,List<Object>> finelocks = new HashMap<String,List<Object>>();
+   private int txnum;
+
+   /**
+    * Create a concurrency manager for the specified transaction.
+    * The lock table uses the transaction number to
+    * detect deadlocks among the waiting transactions.
+    * @param txnum the ID of the transaction
+    */
+   public ConcurrencyMgr(int txnum) {
+      this.txnum = txnum;
+   }
+
+   /**
+    * Set the longest time that a transaction waits for a lock
+    * before aborting. Deadlocks are detected without waiting;
+    * the timeout is a backstop for anything else.
+    * @param maxTime the maximum wait, in milliseconds
+    */
+   public static void setLockTimeout(long maxTime) {
+      locktbl.setMaxTime(maxTime);
+   }
+
+   /**
+    * Set the number of block and record locks that a transaction
+    * may hold on a table before they are escalated to a table lock.
+    * @param threshold the maximum number of locks per table
+    */
+   public static void setEscalationThreshold(int threshold) {
+      escalationThreshold = threshold;
+   }
 
    /**
     * Obtain an SLock on the block, if necessary.
     * The method will ask the lock table for an SLock
-    * if the transaction currently has no locks on that block.
+    * if the transaction currently has no locks on that block
+    * or its table that allow the block to be read.
     * @param blk a reference to the disk block
     */
    public void sLock(BlockId blk) {
-      if (locks.get(blk) == null) {
-         locktbl.sLock(blk);
-         locks.put(blk, "S");
-      }
+      String filename = blk.fileName();
+      if (holds(filename, S) || locks.containsKey(blk))
+         return;
+      lock(filename, IS);
+      lockFine(filename, blk, S);
+      checkEscalation(filename);
    }
 
    /**
     * Obtain an XLock on the block, if necessary.
-    * If the transaction does not have an XLock on that block,
+    * If the transaction has no locks on that block
+    * or its table that allow the block to be modified,
     * then the method first gets an SLock on that block
     * (if necessary), and then upgrades it to an XLock.
     * @param blk a reference to the disk block
     */
    public void xLock(BlockId blk) {
-      if (!hasXLock(blk)) {
-         sLock(blk);
-         locktbl.xLock(blk);
-         locks.put(blk, "X");
-      }
+      String filename = blk.fileName();
+      if (holds(filename, X) || holds(blk, IX))
+         return;
+      lock(filename, IX);
+      lockFine(filename, blk, S);
+      lock(blk, X);
+      checkEscalation(filename);
+   }
+
+   /**
+    * Obtain an XLock on the block, as {@link #xLock(BlockId)} does,
+    * but only if it can be granted without waiting
+    * for another transaction to release its lock on the block.
+    * @param blk a reference to the disk block
+    * @return true if the transaction now holds the lock
+    */
+   public boolean tryXLock(BlockId blk) {
+      String filename = blk.fileName();
+      if (holds(filename, X) || holds(blk, IX))
+         return true;
+      lock(filename, IX);
+      if (!tryLockFine(filename, blk, X))
+         return false;
+      checkEscalation(filename);
+      return true;
+   }
+
+   /**
+    * Obtain an SLock on the specified table, if necessary.
+    * The lock allows every block and record of the table to be read.
+    * @param filename the name of the table's file
+    */
+   public void sLockTable(String filename) {
+      if (!holds(filename, S))
+         lock(filename, S);
+   }
+
+   /**
+    * Obtain an XLock on the specified table, if necessary.
+    * The lock allows every block and record of the table
+    * to be read and modified.
+    * @param filename the name of the table's file
+    */
+   public void xLockTable(String filename) {
+      if (!holds(filename, X))
+         lock(filename, X);
+   }
+
+   /**
+    * Obtain an IXLock on the block, if necessary,
+    * in preparation for modifying some of its records.
+    * While the transaction holds this lock, it may read
+    * the block, and modify the records that it has xlocked.
+    * @param blk a reference to the disk block
+    */
+   public void ixLock(BlockId blk) {
+      String filename = blk.fileName();
+      if (holds(filename, X) || holds(blk, IX))
+         return;
+      lock(filename, IX);
+      lockFine(filename, blk, IX);
+      checkEscalation(filename);
+   }
+
+   /**
+    * Obtain an SLock on the record in the specified slot
+    * of the block, if necessary.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void sLockRecord(BlockId blk, int slot) {
+      String filename = blk.fileName();
+      RecordId rec = new RecordId(blk, slot);
+      if (holds(filename, S) || holds(blk, S) || locks.containsKey(rec))
+         return;
+      lock(filename, IS);
+      lockFine(filename, blk, IS);
+      lockFine(filename, rec, S);
+      checkEscalation(filename);
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * of the block, if necessary.
+    * As with blocks, the method first gets an SLock
+    * on the record, and then upgrades it.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void xLockRecord(BlockId blk, int slot) {
+      String filename = blk.fileName();
+      RecordId rec = new RecordId(blk, slot);
+      if (holds(filename, X) || holds(blk, X) || holds(rec, X))
+         return;
+      lock(filename, IX);
+      lockFine(filename, blk, IX);
+      lockFine(filename, rec, S);
+      lock(rec, X);
+      checkEscalation(filename);
+   }
+
+   /**
+    * Obtain an XLock on the record, as
+    * {@link #xLockRecord(BlockId, int)} does,
+    * but only if it can be granted without waiting
+    * for another transaction to release its lock on the record.
+    * An inserting transaction uses it to pass over the empty
+    * slots of records whose deletion is not yet committed.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    * @return true if the transaction now holds the lock
+    */
+   public boolean tryXLockRecord(BlockId blk, int slot) {
+      String filename = blk.fileName();
+      RecordId rec = new RecordId(blk, slot);
+      if (holds(filename, X) || holds(blk, X) || holds(rec, X))
+         return true;
+      lock(filename, IX);
+      lockFine(filename, blk, IX);
+      if (!tryLockFine(filename, rec, X))
+         return false;
+      checkEscalation(filename);
+      return true;
    }
 
    /**
@@ -53,13 +227,99 @@ public class ConcurrencyMgr {
     * unlock each one.
     */
    public void release() {
-      for (BlockId blk : locks.keySet()) 
-         locktbl.unlock(blk);
+      for (Object item : locks.keySet())
+         locktbl.unlock(item, txnum);
       locks.clear();
+      finelocks.clear();
    }
 
-   private boolean hasXLock(BlockId blk) {
-      String locktype = locks.get(blk);
-      return locktype != null && locktype.equals("X");
+   private boolean holds(Object item, LockMode mode) {
+      LockMode held = locks.get(item);
+      return held != null && held.covers(mode);
+   }
+
+   private void lock(Object item, LockMode mode) {
+      if (!holds(item, mode))
+         locks.put(item, locktbl.lock(item, txnum, mode));
+   }
+
+   /**
+    * Lock a block or record of the specified table,
+    * and count it towards the table's escalation threshold.
+    */
+   private void lockFine(String filename, Object item, LockMode mode) {
+      boolean isnew = !locks.containsKey(item);
+      lock(item, mode);
+      if (isnew)
+         finelocks.computeIfAbsent(filename, f -> new ArrayList<Object>()).add(item);
+   }
+
+   /**
+    * Lock a block or record of the specified table, as
+    * {@link #lockFine(String, Object, LockMode)} does,
+    * but only if the lock can be granted without waiting.
+    * @return true if the lock was granted
+    */
+   private boolean tryLockFine(String filename, Object item, LockMode mode) {
+      if (holds(item, mode))
+         return true;
+      LockMode held = locktbl.tryLock(item, txnum, mode);
+      if (held == null)
+         return false;
+      if (locks.put(item, held) == null)
+         finelocks.computeIfAbsent(filename, f -> new ArrayList<Object>()).add(item);
+      return true;
+   }
+
+   /**
+    * Replace the transaction's block and record locks on the
+    * table by a single table lock, if there are too many of them.
+    * The finer-grained locks can be released safely,
+    * because the table lock covers them.
+    */
+   private void checkEscalation(String filename) {
+      List<Object> items = finelocks.get(filename);
+      if (items == null || items.size() <= escalationThreshold)
+         return;
+      LockMode mode = S;
+      for (Object item : items) {
+         LockMode held = locks.get(item);
+         if (held != S && held != IS)
+            mode = X;
+      }
+      lock(filename, mode);
+      for (Object item : items) {
+         locktbl.unlock(item, txnum);
+         locks.remove(item);
+      }
+      finelocks.remove(filename);
+   }
+
+   /**
+    * The identifier of a record, for locking purposes.
+    */
+   private static class RecordId {
+      private BlockId blk;
+      private int slot;
+
+      RecordId(BlockId blk, int slot) {
+         this.blk = blk;
+         this.slot = slot;
+      }
+
+      public boolean equals(Object obj) {
+         if (!(obj instanceof RecordId))
+            return false;
+         RecordId r = (RecordId) obj;
+         return blk.equals(r.blk) && slot == r.slot;
+      }
+
+      public int hashCode() {
+         return 31 * blk.hashCode() + slot;
+      }
+
+      public String toString() {
+         return "[" + blk + ", slot " + slot + "]";
+      }
    }
 }
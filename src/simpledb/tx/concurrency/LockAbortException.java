@@ -9,4 +9,8 @@ package simpledb.tx.concurrency;
 public class LockAbortException extends RuntimeException {
    public LockAbortException() {
    }
+
+   public LockAbortException(String msg) {
+      super(msg);
+   }
 }
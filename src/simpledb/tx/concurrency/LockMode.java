@@ -0,0 +1,61 @@
+package simpledb.tx.concurrency;
+
+/**
+ * The modes of a lock in the granularity hierarchy.
+ * An intention mode on a table or block (IS or IX) says that
+ * the transaction locks finer-grained items within it,
+ * in shared or exclusive mode; SIX is a shared lock on
+ * the whole item together with an intention to update some of it.
+ */
+enum LockMode {
+   IS, IX, S, SIX, X;
+
+   private static final boolean[][] COMPATIBLE = {
+      //          IS     IX     S      SIX    X
+      /* IS  */ { true,  true,  true,  true,  false },
+      /* IX  */ { true,  true,  false, false, false },
+      /* S   */ { true,  false, true,  false, false },
+      /* SIX */ { true,  false, false, false, false },
+      /* X   */ { false, false, false, false, false }
+   };
+
+   /**
+    * Return true if another transaction may hold this mode
+    * while the specified mode is held.
+    * @param other the mode held by the other transaction
+    * @return true if the two modes are compatible
+    */
+   boolean isCompatibleWith(LockMode other) {
+      return COMPATIBLE[ordinal()][other.ordinal()];
+   }
+
+   /**
+    * Return true if holding this mode grants
+    * everything that the specified mode grants.
+    * @param other the requested mode
+    * @return true if this mode is at least as strong
+    */
+   boolean covers(LockMode other) {
+      switch (this) {
+         case X:   return true;
+         case SIX: return other != X;
+         case S:   return other == S || other == IS;
+         case IX:  return other == IX || other == IS;
+         default:  return other == IS;
+      }
+   }
+
+   /**
+    * Return the weakest mode that covers both this mode
+    * and the specified one; for example, S and IX combine to SIX.
+    * @param other the other mode
+    * @return the combined mode
+    */
+   LockMode combine(LockMode other) {
+      if (covers(other))
+         return this;
+      if (other.covers(this))
+         return other;
+      return SIX;  // the combination of S and IX
+   }
+}
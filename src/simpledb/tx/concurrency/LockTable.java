@@ -1,103 +1,405 @@
 package simpledb.tx.concurrency;
 
 import java.util.*;
-import simpledb.file.BlockId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
 
 /**
- * The lock table, which provides methods to lock and unlock blocks.
- * If a transaction requests a lock that causes a conflict with an
- * existing lock, then that transaction is placed on a wait list.
- * There is only one wait list for all blocks.
- * When the last lock on a block is unlocked, then all transactions
- * are removed from the wait list and rescheduled.
- * If one of those transactions discovers that the lock it is waiting for
- * is still locked, it will place itself back on the wait list.
+ * The lock table, which provides methods to lock and unlock
+ * the items of the granularity hierarchy: tables, blocks and records.
+ * An item is identified by any object with suitable
+ * <code>equals</code> and <code>hashCode</code> methods.
+ * The table is divided into shards by the hash of the item,
+ * and each shard has its own latch, so that transactions
+ * locking different items rarely contend with each other.
+ * <p>
+ * Each locked item has a lock head, which records the
+ * transactions holding the lock, with their modes,
+ * and a FIFO queue of the requests waiting for it.
+ * A transaction that requests a lock it already holds
+ * converts it to the combination of the two modes.
+ * A request that conflicts with the other holders, or a new request
+ * that would overtake a waiting new request,
+ * joins the queue and waits on its own condition.
+ * When a lock is released, the requests at the front of its queue
+ * are granted for as long as they are compatible, and only those
+ * requests are woken.
+ * Conversions go ahead of the waiting new requests.
+ * A new request does not wait for a pending conversion, however:
+ * the conversion cannot be granted until the conflicting holders
+ * finish, and one of them may be waiting for the new request.
+ * <p>
+ * Before a transaction waits, the table follows the wait-for graph
+ * from it; a waiting transaction waits for the holders of
+ * conflicting locks and for the requests ahead of it in the queue.
+ * If the transaction would wait for itself, then there is a deadlock,
+ * and the youngest transaction of the cycle is aborted immediately.
+ * The timeout remains as a backstop for waits that
+ * the graph cannot explain.
  * @author Edward Sciore
  */
 class LockTable {
-   private static final long MAX_TIME = 10000; // 10 seconds
-   
-   private Map<BlockId,Integer> locks = new HashMap<BlockId,Integer>();
-   
+   private static final int NUM_SHARDS = 16;
+   private volatile long maxTime = 10000; // 10 seconds
+   private Shard[] shards = new Shard[NUM_SHARDS];
+
+   // The waiting requests, by transaction; also the latch for deadlock detection.
+   private Map<Integer,Request> waiting = new HashMap<Integer,Request>();
+
+   private static class Request {
+      int txnum;
+      LockMode mode;
+      boolean conversion;
+      LockHead head;
+      Condition ready;
+      boolean granted = false;
+      boolean aborted = false;
+
+      Request(int txnum, LockMode mode, boolean conversion, LockHead head, Condition ready) {
+         this.txnum = txnum;
+         this.mode = mode;
+         this.conversion = conversion;
+         this.head = head;
+         this.ready = ready;
+      }
+   }
+
+   private static class LockHead {
+      Object item;
+      Shard shard;
+      Map<Integer,LockMode> holders = new HashMap<Integer,LockMode>();
+      LinkedList<Request> queue = new LinkedList<Request>();
+
+      LockHead(Object item, Shard shard) {
+         this.item = item;
+         this.shard = shard;
+      }
+
+      boolean isGrantable(int txnum, LockMode mode) {
+         for (Map.Entry<Integer,LockMode> e : holders.entrySet())
+            if (e.getKey() != txnum && !e.getValue().isCompatibleWith(mode))
+               return false;
+         return true;
+      }
+
+      boolean hasWaitingNewRequests() {
+         for (Request r : queue)
+            if (!r.conversion)
+               return true;
+         return false;
+      }
+   }
+
+   private static class Shard {
+      Lock latch = new ReentrantLock();
+      Map<Object,LockHead> heads = new HashMap<Object,LockHead>();
+
+      /**
+       * Grant the waiting requests in queue order
+       * for as long as they are compatible with the holders,
+       * and wake each one that is granted.
+       * A conversion that cannot be granted yet does not
+       * hold back the new requests behind it.
+       * The lock head is discarded once it is unused.
+       */
+      void grantWaiters(LockHead h) {
+         Iterator<Request> iter = h.queue.iterator();
+         while (iter.hasNext()) {
+            Request r = iter.next();
+            if (!h.isGrantable(r.txnum, r.mode)) {
+               if (r.conversion)
+                  continue;
+               break;
+            }
+            iter.remove();
+            h.holders.put(r.txnum, r.mode);
+            r.granted = true;
+            r.ready.signal();
+         }
+         if (h.holders.isEmpty() && h.queue.isEmpty())
+            heads.remove(h.item);
+      }
+
+      /**
+       * Withdraw a request that has not been granted.
+       * @return false if the request had already been granted
+       */
+      boolean cancel(Request r) {
+         if (r.granted)
+            return false;
+         r.head.queue.remove(r);
+         grantWaiters(r.head);
+         return true;
+      }
+   }
+
+   LockTable() {
+      for (int i=0; i<NUM_SHARDS; i++)
+         shards[i] = new Shard();
+   }
+
    /**
-    * Grant an SLock on the specified block.
-    * If an XLock exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the lock is released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Set the longest time that a transaction will wait for a lock.
+    * @param maxTime the maximum wait, in milliseconds
     */
-   public synchronized void sLock(BlockId blk) {
+   void setMaxTime(long maxTime) {
+      this.maxTime = maxTime;
+   }
+
+   /**
+    * Grant a lock on the specified item in the specified mode.
+    * If the transaction already holds a lock on the item,
+    * then the lock is converted to the combination
+    * of the held and requested modes.
+    * If the lock conflicts with the locks of other transactions,
+    * or other transactions are already waiting for the item,
+    * then the calling thread will wait its turn.
+    * If waiting would cause a deadlock, or the thread
+    * waits for too long, then an exception is thrown.
+    * @param item the table, block or record to lock
+    * @param txnum the id of the requesting transaction
+    * @param mode the requested mode
+    * @return the mode now held by the transaction
+    */
+   LockMode lock(Object item, int txnum, LockMode mode) {
+      Shard s = shardFor(item);
+      Request r;
+      s.latch.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasXlock(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasXlock(blk))
-            throw new LockAbortException();
-         int val = getLockVal(blk);  // will not be negative
-         locks.put(blk, val+1);
+         LockHead h = s.heads.get(item);
+         if (h == null) {
+            h = new LockHead(item, s);
+            s.heads.put(item, h);
+         }
+         LockMode held = h.holders.get(txnum);
+         LockMode target = (held == null) ? mode : held.combine(mode);
+         if (target == held)
+            return held;
+         boolean conversion = (held != null);
+         if (h.isGrantable(txnum, target) && (conversion || !h.hasWaitingNewRequests())) {
+            h.holders.put(txnum, target);
+            return target;
+         }
+         r = new Request(txnum, target, conversion, h, s.latch.newCondition());
+         int pos = 0;
+         if (conversion)
+            while (pos < h.queue.size() && h.queue.get(pos).conversion)
+               pos++;
+         else
+            pos = h.queue.size();
+         h.queue.add(pos, r);
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      finally {
+         s.latch.unlock();
       }
+      awaitGrant(r);
+      return r.mode;
    }
-   
+
    /**
-    * Grant an XLock on the specified block.
-    * If a lock of any type exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the locks are released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Grant a lock on the specified item in the specified mode,
+    * as {@link #lock(Object, int, LockMode)} does,
+    * but only if it can be granted without waiting.
+    * @param item the table, block or record to lock
+    * @param txnum the id of the requesting transaction
+    * @param mode the requested mode
+    * @return the mode now held by the transaction,
+    * or null if the lock was not granted
     */
-   synchronized void xLock(BlockId blk) {
+   LockMode tryLock(Object item, int txnum, LockMode mode) {
+      Shard s = shardFor(item);
+      s.latch.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasOtherSLocks(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasOtherSLocks(blk))
-            throw new LockAbortException();
-         locks.put(blk, -1);
+         LockHead h = s.heads.get(item);
+         if (h == null) {
+            h = new LockHead(item, s);
+            s.heads.put(item, h);
+         }
+         LockMode held = h.holders.get(txnum);
+         LockMode target = (held == null) ? mode : held.combine(mode);
+         if (target == held)
+            return held;
+         boolean conversion = (held != null);
+         if (h.isGrantable(txnum, target) && (conversion || !h.hasWaitingNewRequests())) {
+            h.holders.put(txnum, target);
+            return target;
+         }
+         return null;
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      finally {
+         s.latch.unlock();
       }
    }
-   
+
    /**
-    * Release a lock on the specified block.
-    * If this lock is the last lock on that block,
-    * then the waiting transactions are notified.
-    * @param blk a reference to the disk block
+    * Release the transaction's lock on the specified item,
+    * and grant the lock to the waiting requests that
+    * have become compatible.
+    * @param item the locked table, block or record
+    * @param txnum the id of the transaction holding the lock
     */
-   synchronized void unlock(BlockId blk) {
-      int val = getLockVal(blk);
-      if (val > 1)
-         locks.put(blk, val-1);
-      else {
-         locks.remove(blk);
-         notifyAll();
+   void unlock(Object item, int txnum) {
+      Shard s = shardFor(item);
+      s.latch.lock();
+      try {
+         LockHead h = s.heads.get(item);
+         if (h == null)
+            return;
+         h.holders.remove(txnum);
+         s.grantWaiters(h);
+      }
+      finally {
+         s.latch.unlock();
+      }
+   }
+
+   /**
+    * Wait until the request is granted.
+    * The request is first entered in the wait-for graph,
+    * which is checked for a cycle through it.
+    * If the transaction is chosen as the victim of a deadlock,
+    * either now or while it waits, or it waits too long,
+    * then the request is withdrawn and an exception is thrown.
+    */
+   private void awaitGrant(Request r) {
+      Shard s = r.head.shard;
+      try {
+         if (!enterWaitGraph(r)) {
+            s.latch.lock();
+            try {
+               if (s.cancel(r))
+                  throw new LockAbortException("deadlock: transaction " + r.txnum + " aborted");
+               return;
+            }
+            finally {
+               s.latch.unlock();
+            }
+         }
+         long deadline = System.currentTimeMillis() + maxTime;
+         s.latch.lock();
+         try {
+            while (!r.granted && !r.aborted) {
+               long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0 && s.cancel(r))
+                  throw new LockAbortException();
+               r.ready.await(remaining, TimeUnit.MILLISECONDS);
+            }
+            if (r.aborted)
+               throw new LockAbortException("deadlock: transaction " + r.txnum + " aborted");
+         }
+         catch(InterruptedException e) {
+            if (s.cancel(r))
+               throw new LockAbortException();
+         }
+         finally {
+            s.latch.unlock();
+         }
+      }
+      finally {
+         synchronized(waiting) {
+            waiting.remove(r.txnum);
+         }
       }
    }
-   
-   private boolean hasXlock(BlockId blk) {
-      return getLockVal(blk) < 0;
+
+   /**
+    * Record that the request is waiting, and search the
+    * wait-for graph for cycles through its transaction.
+    * The youngest transaction of each cycle is its victim.
+    * A victim other than the requester is aborted here,
+    * by withdrawing its request and waking it;
+    * aborted requests do not wait for anything, so the search
+    * is repeated until no cycle remains. A requester that
+    * waits behind several others may close several cycles.
+    * @return false if the requesting transaction is a victim
+    */
+   private boolean enterWaitGraph(Request r) {
+      synchronized(waiting) {
+         waiting.put(r.txnum, r);
+         int victim = findDeadlockVictim(r.txnum);
+         while (victim >= 0) {
+            if (victim == r.txnum)
+               return false;
+            abort(waiting.get(victim));
+            victim = findDeadlockVictim(r.txnum);
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Search the wait-for graph for a cycle through the
+    * specified transaction, and return the youngest
+    * transaction of the cycle, or -1 if there is no cycle.
+    */
+   private int findDeadlockVictim(int txnum) {
+      Map<Integer,Integer> parent = new HashMap<Integer,Integer>();
+      Deque<Integer> stack = new ArrayDeque<Integer>();
+      stack.push(txnum);
+      while (!stack.isEmpty()) {
+         int tx = stack.pop();
+         Request w = waiting.get(tx);
+         if (w == null)
+            continue;
+         for (int blocker : blockers(w)) {
+            if (blocker == txnum) {
+               int victim = txnum;
+               for (int t=tx; t!=txnum; t=parent.get(t))
+                  victim = Math.max(victim, t);
+               return victim;
+            }
+            if (!parent.containsKey(blocker)) {
+               parent.put(blocker, tx);
+               stack.push(blocker);
+            }
+         }
+      }
+      return -1;
    }
-   
-   private boolean hasOtherSLocks(BlockId blk) {
-      return getLockVal(blk) > 1;
+
+   /**
+    * Return the transactions that the waiting request waits for:
+    * the holders of conflicting locks, and the transactions
+    * whose requests are ahead of it in the queue.
+    */
+   private Collection<Integer> blockers(Request r) {
+      Shard s = r.head.shard;
+      s.latch.lock();
+      try {
+         Set<Integer> result = new HashSet<Integer>();
+         if (r.granted || r.aborted)
+            return result;
+         for (Map.Entry<Integer,LockMode> e : r.head.holders.entrySet())
+            if (!e.getValue().isCompatibleWith(r.mode))
+               result.add(e.getKey());
+         for (Request q : r.head.queue) {
+            if (q == r)
+               break;
+            result.add(q.txnum);
+         }
+         result.remove(r.txnum);
+         return result;
+      }
+      finally {
+         s.latch.unlock();
+      }
    }
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+
+   private void abort(Request r) {
+      Shard s = r.head.shard;
+      s.latch.lock();
+      try {
+         if (s.cancel(r)) {
+            r.aborted = true;
+            r.ready.signal();
+         }
+      }
+      finally {
+         s.latch.unlock();
+      }
    }
-   
-   private int getLockVal(BlockId blk) {
-      Integer ival = locks.get(blk);
-      return (ival == null) ? 0 : ival.intValue();
+
+   private Shard shardFor(Object item) {
+      return shards[Math.floorMod(item.hashCode(), NUM_SHARDS)];
    }
 }
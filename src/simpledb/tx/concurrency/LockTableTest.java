@@ -0,0 +1,61 @@
+package simpledb.tx.concurrency;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import simpledb.file.BlockId;
+
+public class LockTableTest {
+   private static final int NUM_THREADS = 8;
+   private static final int NUM_BLOCKS = 64;
+   private static final int LOCKS_PER_THREAD = 100000;
+
+   public static void main(String[] args) throws InterruptedException {
+      LockTable locktbl = new LockTable();
+      // the number of readers of each block, or -1 for a writer
+      AtomicInteger[] users = new AtomicInteger[NUM_BLOCKS];
+      for (int i=0; i<NUM_BLOCKS; i++)
+         users[i] = new AtomicInteger();
+      AtomicInteger violations = new AtomicInteger();
+      AtomicInteger aborts = new AtomicInteger();
+
+      Thread[] threads = new Thread[NUM_THREADS];
+      long start = System.currentTimeMillis();
+      for (int t=0; t<NUM_THREADS; t++) {
+         int txnum = t;
+         threads[t] = new Thread(() -> {
+            Random rand = new Random(txnum);
+            for (int i=0; i<LOCKS_PER_THREAD; i++) {
+               int n = rand.nextInt(NUM_BLOCKS);
+               BlockId blk = new BlockId("testfile", n);
+               boolean write = rand.nextInt(10) == 0;
+               try {
+                  locktbl.lock("testfile", txnum, write ? LockMode.IX : LockMode.IS);
+                  locktbl.lock(blk, txnum, LockMode.S);
+                  if (write) {
+                     locktbl.lock(blk, txnum, LockMode.X);
+                     if (!users[n].compareAndSet(0, -1))
+                        violations.incrementAndGet();
+                     users[n].set(0);
+                  }
+                  else if (users[n].getAndIncrement() < 0)
+                     violations.incrementAndGet();
+                  else
+                     users[n].decrementAndGet();
+               }
+               catch(LockAbortException e) {
+                  aborts.incrementAndGet();
+               }
+               locktbl.unlock(blk, txnum);
+               locktbl.unlock("testfile", txnum);
+            }
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      long elapsed = System.currentTimeMillis() - start;
+      System.out.println(NUM_THREADS * LOCKS_PER_THREAD + " lock/unlock pairs in "
+            + elapsed + " ms; " + violations.get() + " conflicting grants, "
+            + aborts.get() + " aborts");
+   }
+}
@@ -1,15 +1,34 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 /**
  * The CHECKPOINT log record.
+ * A checkpoint summarizes the active-transaction table
+ * and the dirty-page table at the time it was taken:
+ * it holds the LSN of the START record of the oldest
+ * active transaction, and the smallest recovery LSN
+ * of the dirty pages.
+ * Recovery reads the log back only as far as
+ * the smaller of the two.
+ * A log record must fit in a single log block, so the tables
+ * are summarized by the only values that recovery needs.
  * @author Edward Sciore
  */
 public class CheckpointRecord implements LogRecord {
-   public CheckpointRecord() {
+   private int startLSN, recLSN;
+
+   /**
+    * Create a checkpoint record by reading two values from the log.
+    * @param p the page containing the log values
+    */
+   public CheckpointRecord(Page p) {
+      int spos = Integer.BYTES;
+      startLSN = p.getInt(spos);
+      int rpos = spos + Integer.BYTES;
+      recLSN = p.getInt(rpos);
    }
 
    public int op() {
@@ -30,20 +49,73 @@ public class CheckpointRecord implements LogRecord {
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(Transaction tx) {}
+
+   /**
+    * Returns null, because a checkpoint record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Returns -1, because a checkpoint record
+    * is not part of an undo chain.
+    */
+   public int prevLSN() {
+      return -1;
+   }
+
+   /**
+    * Returns -1, because a checkpoint record
+    * does not modify a page.
+    */
+   public int pagePrevLSN() {
+      return -1;
+   }
+
+   /**
+    * Does nothing, because a checkpoint record
+    * does not modify a page.
+    */
+   public void undo(Page p) {}
+
+   /**
+    * Returns the LSN from which recovery must read the log:
+    * no record older than this is needed to redo
+    * the dirty pages or to undo the active transactions.
+    * @return the LSN at which recovery starts
+    */
+   public int redoLSN() {
+      return Math.min(startLSN, recLSN);
+   }
+
    public String toString() {
-      return "<CHECKPOINT>";
+      return "<CHECKPOINT " + startLSN + " " + recLSN + ">";
    }
 
    /** 
     * A static method to write a checkpoint record to the log.
     * This log record contains the CHECKPOINT operator,
-    * and nothing else.
+    * followed by the START LSN of the oldest active transaction
+    * and the smallest recovery LSN of the dirty pages.
+    * Each value is the LSN at which the checkpoint began
+    * if there are no active transactions or dirty pages.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm) {
-      byte[] rec = new byte[Integer.BYTES];
+   public static int writeToLog(LogMgr lm, int startLSN, int recLSN) {
+      int spos = Integer.BYTES;
+      int rpos = spos + Integer.BYTES;
+      byte[] rec = new byte[rpos + Integer.BYTES];
       Page p = new Page(rec);
       p.setInt(0, CHECKPOINT);
+      p.setInt(spos, startLSN);
+      p.setInt(rpos, recLSN);
       return lm.append(rec);
    }
 }
@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.tx.Transaction;
 
 /**
@@ -10,7 +10,8 @@ import simpledb.tx.Transaction;
 public interface LogRecord {
    static final int CHECKPOINT = 0, START = 1,
          COMMIT = 2, ROLLBACK  = 3,
-         SETINT = 4, SETSTRING = 5;
+         SETINT = 4, SETSTRING = 5, SETHINT = 6,
+         PAGEIMAGE = 7;
 
    /**
     * Returns the log record's type. 
@@ -25,6 +26,34 @@ public interface LogRecord {
     */
    int txNumber();
 
+   /**
+    * Returns the block modified by the operation
+    * encoded by this log record, or null if the
+    * operation does not modify a block.
+    * @return the modified block, or null
+    */
+   BlockId block();
+
+   /**
+    * Returns the LSN of the previous update record
+    * of the same transaction, or of its START record
+    * if there is none; the update records of a transaction
+    * are thereby chained backwards to its START record.
+    * Returns -1 for the other record types.
+    * @return the LSN of the transaction's previous record, or -1
+    */
+   int prevLSN();
+
+   /**
+    * Returns the page LSN that the modified block had before
+    * the operation encoded by this log record, that is, the LSN
+    * of the previous record that modified the block.
+    * The records of each block are thereby chained backwards.
+    * Returns -1 for records that do not modify a block.
+    * @return the previous page LSN of the block, or -1
+    */
+   int pagePrevLSN();
+
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
@@ -33,6 +62,23 @@ public interface LogRecord {
     */
    void undo(Transaction tx);
 
+   /**
+    * Undoes the operation encoded by this log record
+    * on the specified copy of the modified block,
+    * without logging or locking.
+    * This is how an older version of the block is reconstructed.
+    * @param p a copy of the modified block
+    */
+   void undo(Page p);
+
+   /**
+    * Redoes the operation encoded by this log record.
+    * The only log record types for which this method
+    * does anything are SETINT, SETSTRING and SETHINT.
+    * @param tx the transaction that is performing the redo.
+    */
+   void redo(Transaction tx);
+
    /**
     * Interpret the bytes returned by the log iterator.
     * @param bytes
@@ -42,7 +88,7 @@ public interface LogRecord {
       Page p = new Page(bytes);
       switch (p.getInt(0)) {
       case CHECKPOINT: 
-         return new CheckpointRecord();
+         return new CheckpointRecord(p);
       case START: 
          return new StartRecord(p);
       case COMMIT: 
@@ -53,6 +99,10 @@ public interface LogRecord {
          return new SetIntRecord(p);
       case SETSTRING: 
          return new SetStringRecord(p);
+      case SETHINT: 
+         return new SetHintRecord(p);
+      case PAGEIMAGE: 
+         return new PageImageRecord(p);
       default:
          return null;
       }
@@ -0,0 +1,153 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The PAGEIMAGE log record, which holds a fragment of the image
+ * of a newly appended block that was filled without logging
+ * its modifications individually, as by a bulk load.
+ * Since a log record must fit in a log page, the image of a
+ * block is logged as a few consecutive fragments.
+ * The block was empty (all zeros) before it was filled,
+ * so the modification is undone by zeroing the fragment.
+ */
+public class PageImageRecord implements LogRecord {
+   private int txnum, prevLSN, pagePrevLSN, offset;
+   private byte[] image;
+   private BlockId blk;
+
+   /**
+    * Create a new pageimage log record.
+    * @param p the page containing the log values
+    */
+   public PageImageRecord(Page p) {
+      int tpos = Integer.BYTES;
+      txnum = p.getInt(tpos);
+      int ppos = tpos + Integer.BYTES;
+      prevLSN = p.getInt(ppos);
+      int gpos = ppos + Integer.BYTES;
+      pagePrevLSN = p.getInt(gpos);
+      int fpos = gpos + Integer.BYTES;
+      String filename = p.getString(fpos);
+      int bpos = fpos + Page.maxLength(filename.length());
+      int blknum = p.getInt(bpos);
+      blk = new BlockId(filename, blknum);
+      int opos = bpos + Integer.BYTES;
+      offset = p.getInt(opos);
+      int ipos = opos + Integer.BYTES;
+      image = p.getBytes(ipos);
+   }
+
+   public int op() {
+      return PAGEIMAGE;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
+   public int prevLSN() {
+      return prevLSN;
+   }
+
+   public int pagePrevLSN() {
+      return pagePrevLSN;
+   }
+
+   public String toString() {
+      return "<PAGEIMAGE " + txnum + " " + prevLSN + " " + blk + " " + offset + " " + image.length + ">";
+   }
+
+   /**
+    * Zero the fragment of the block.
+    * The method pins a buffer to the specified block,
+    * calls setInt to clear each integer of the fragment,
+    * and unpins the buffer.
+    * Records for temporary tables are ignored.
+    * @see simpledb.tx.recovery.LogRecord#undo(Transaction)
+    */
+   public void undo(Transaction tx) {
+      if (FileMgr.isTempFile(blk.fileName()))
+         return; // temporary tables do not survive a restart
+      tx.pin(blk);
+      for (int i=0; i<image.length; i+=Integer.BYTES)
+         tx.setInt(blk, offset + i, 0, false); // don't log the undo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * Zero the fragment in the page, without logging or locking.
+    * @see simpledb.tx.recovery.LogRecord#undo(Page)
+    */
+   public void undo(Page p) {
+      for (int i=0; i<image.length; i+=Integer.BYTES)
+         p.setInt(offset + i, 0);
+   }
+
+   /**
+    * Write the fragment saved in the log record to the block.
+    * The method pins a buffer to the specified block,
+    * calls setInt to reapply each integer of the fragment,
+    * and unpins the buffer.
+    * Records for temporary tables are ignored.
+    * @see simpledb.tx.recovery.LogRecord#redo(Transaction)
+    */
+   public void redo(Transaction tx) {
+      if (FileMgr.isTempFile(blk.fileName()))
+         return; // temporary tables do not survive a restart
+      Page p = new Page(image);
+      tx.pin(blk);
+      for (int i=0; i<image.length; i+=Integer.BYTES)
+         tx.setInt(blk, offset + i, p.getInt(i), false); // don't log the redo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * Return the size of the largest fragment of the specified block
+    * whose record fits in a log page, along with the
+    * boundary and length that the log manager stores with it.
+    * @param logpagesize the size of a log page
+    * @param blk the block
+    * @return the largest fragment size, a multiple of 4
+    */
+   public static int maxFragment(int logpagesize, BlockId blk) {
+      int overhead = 10 * Integer.BYTES + Page.maxLength(blk.fileName().length());
+      return (logpagesize - overhead) / Integer.BYTES * Integer.BYTES;
+   }
+
+   /**
+    * A static method to write a pageimage record to the log.
+    * This log record contains the PAGEIMAGE operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous update (or START) record,
+    * the previous page LSN of the block, the filename and number
+    * of the block, the offset of the fragment, and its bytes.
+    * @return the LSN of the last log value
+    */
+   public static int writeToLog(LogMgr lm, int txnum, int prevLSN, int pagePrevLSN, BlockId blk, int offset, byte[] image) {
+      int tpos = Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int gpos = ppos + Integer.BYTES;
+      int fpos = gpos + Integer.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int opos = bpos + Integer.BYTES;
+      int ipos = opos + Integer.BYTES;
+      byte[] rec = new byte[ipos + Integer.BYTES + image.length];
+      Page p = new Page(rec);
+      p.setInt(0, PAGEIMAGE);
+      p.setInt(tpos, txnum);
+      p.setInt(ppos, prevLSN);
+      p.setInt(gpos, pagePrevLSN);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(opos, offset);
+      p.setBytes(ipos, image);
+      return lm.append(rec);
+   }
+}
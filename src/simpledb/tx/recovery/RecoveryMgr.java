@@ -1,6 +1,7 @@
 package simpledb.tx.recovery;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import simpledb.file.*;
 import simpledb.log.*;
 import simpledb.buffer.*;
@@ -9,120 +10,368 @@ import static simpledb.tx.recovery.LogRecord.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <p>
+ * The recovery manager of a read-only transaction writes nothing
+ * to the log. Such a transaction cannot modify the database,
+ * and its writes to temporary tables need not be undone,
+ * because temporary tables are private to the transaction.
+ * It is entered in the active-transaction table only
+ * when it takes its snapshot, under the oldest LSN that the
+ * snapshot needs.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   private static boolean forceAtCommit = false;
+   private static Map<Integer,Integer> activeTxs = new ConcurrentHashMap<>();
    private LogMgr lm;
    private BufferMgr bm;
    private Transaction tx;
    private int txnum;
+   private int lastLSN;
+   private boolean readOnly;
 
    /**
     * Create a recovery manager for the specified transaction.
     * @param txnum the ID of the specified transaction
     */
    public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferMgr bm) {
+      this(tx, txnum, lm, bm, false);
+   }
+
+   /**
+    * Create a recovery manager for the specified transaction,
+    * which may be read-only.
+    * A read-write transaction writes a start record to the log.
+    * @param txnum the ID of the specified transaction
+    * @param readOnly true if the transaction is read-only
+    */
+   public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferMgr bm, boolean readOnly) {
       this.tx = tx;
       this.txnum = txnum;
       this.lm = lm;
       this.bm = bm;
-      StartRecord.writeToLog(lm, txnum);
+      this.readOnly = readOnly;
+      if (readOnly)
+         return;
+      synchronized(activeTxs) {
+         lastLSN = StartRecord.writeToLog(lm, txnum);
+         activeTxs.put(txnum, lastLSN);
+      }
+   }
+
+   /**
+    * Returns the active-transaction table, which maps
+    * each active transaction to the LSN of its START record.
+    * The table is a snapshot; it is not kept up to date.
+    * @return the active-transaction table
+    */
+   public static Map<Integer,Integer> activeTransactions() {
+      synchronized(activeTxs) {
+         return new HashMap<>(activeTxs);
+      }
+   }
+
+   /**
+    * Takes a snapshot of the database for this transaction.
+    * The active-transaction table and the end of the log are
+    * read atomically with respect to transactions starting,
+    * and the transaction's entry in the table is lowered
+    * to the oldest LSN that the snapshot needs,
+    * so that checkpoints do not truncate that part of the log.
+    * @return the snapshot
+    */
+   public Snapshot snapshot() {
+      synchronized(activeTxs) {
+         Snapshot s = new Snapshot(lm, activeTxs, lm.latestLSN());
+         activeTxs.put(txnum, s.oldestLSN());
+         return s;
+      }
+   }
+
+   /**
+    * Specify whether committing transactions force their
+    * modified buffers to disk.
+    * When they do not, a commit forces only the log
+    * (and any buffers holding unlogged changes),
+    * and recovery redoes the changes of committed transactions.
+    * @param force true if commit should force all modified buffers
+    */
+   public static void setForceAtCommit(boolean force) {
+      forceAtCommit = force;
    }
 
    /**
     * Write a commit record to the log, and flushes it to disk.
+    * Unless force-at-commit is enabled, the transaction's
+    * logged modifications are left in the buffer pool,
+    * to be written later by the buffer manager.
+    * A read-only transaction writes and flushes nothing.
     */
    public void commit() {
-      bm.flushAll(txnum);
+      if (readOnly) {
+         activeTxs.remove(txnum);
+         return;
+      }
+      if (forceAtCommit)
+         bm.flushAll(txnum);
+      else
+         bm.flushUnlogged(txnum);
       int lsn = CommitRecord.writeToLog(lm, txnum);
-      lm.flush(lsn);
+      lm.flushCommit(lsn);
+      activeTxs.remove(txnum);
    }
 
    /**
     * Write a rollback record to the log and flush it to disk.
+    * A read-only transaction has nothing to undo.
     */
    public void rollback() {
+      if (readOnly) {
+         activeTxs.remove(txnum);
+         return;
+      }
       doRollback();
       bm.flushAll(txnum);
       int lsn = RollbackRecord.writeToLog(lm, txnum);
       lm.flush(lsn);
+      activeTxs.remove(txnum);
    }
 
    /**
-    * Recover uncompleted transactions from the log
-    * and then write a quiescent checkpoint record to the log and flush it.
+    * Recover the database from the log, redoing the modifications
+    * that did not reach the disk and undoing those of uncompleted
+    * transactions, and then write a checkpoint record
+    * to the log and flush it.
+    * Since every buffer has been flushed and no other
+    * transaction is active, the checkpoint
+    * starts recovery at the end of the log,
+    * and the earlier log segments are removed.
     */
    public void recover() {
       doRecover();
-      bm.flushAll(txnum);
-      int lsn = CheckpointRecord.writeToLog(lm);
+      bm.flushAll();
+      int end = lm.latestLSN();
+      int lsn = CheckpointRecord.writeToLog(lm, end, end);
       lm.flush(lsn);
+      lm.truncate(end);
    }
 
    /**
     * Write a setint record to the log and return its lsn.
+    * The caller holds the buffer's exclusive latch, so that
+    * the old value and page LSN in the record are the ones
+    * that the modification replaces.
+    * A read-only transaction writes no record, and returns -1.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
    public int setInt(Buffer buff, int offset, int newval) {
+      if (readOnly)
+         return -1;
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
-      return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      lastLSN = SetIntRecord.writeToLog(lm, txnum, lastLSN, buff.pageLSN(), blk, offset, oldval, newval);
+      return lastLSN;
    }
 
    /**
     * Write a setstring record to the log and return its lsn.
+    * The caller holds the buffer's exclusive latch, so that
+    * the old value and page LSN in the record are the ones
+    * that the modification replaces.
+    * A read-only transaction writes no record, and returns -1.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
    public int setString(Buffer buff, int offset, String newval) {
+      if (readOnly)
+         return -1;
       String oldval = buff.contents().getString(offset);
       BlockId blk = buff.block();
-      return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      lastLSN = SetStringRecord.writeToLog(lm, txnum, lastLSN, buff.pageLSN(), blk, offset, oldval, newval);
+      return lastLSN;
    }
 
    /**
-    * Rollback the transaction, by iterating
-    * through the log records until it finds 
-    * the transaction's START record,
-    * calling undo() for each of the transaction's
-    * log records.
+    * Write a sethint record to the log and return its lsn.
+    * The record is not part of the transaction's chain
+    * of update records, and so the hint is not undone
+    * if the transaction rolls back.
+    * The caller holds the buffer's exclusive latch.
+    * A read-only transaction writes no record, and returns -1.
+    * @param buff the buffer containing the page
+    * @param offset the offset of the hint in the page
+    * @param val the value to be written
     */
-   private void doRollback() {
-      Iterator<byte[]> iter = lm.iterator();
-      while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes); 
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(tx);
+   public int setHint(Buffer buff, int offset, int val) {
+      if (readOnly)
+         return -1;
+      return SetHintRecord.writeToLog(lm, buff.pageLSN(), buff.block(), offset, val);
+   }
+
+   /**
+    * Write the image of a page whose modifications were not logged
+    * to the log, and mark the buffer as modified by each record.
+    * The page must have been empty (all zeros) before it was
+    * modified, as a newly appended block is.
+    * The image is written as pageimage records that each hold
+    * a fragment small enough to fit in a log page; fragments
+    * that are still empty need no record. Each record follows the
+    * previous one in the page's chain of records, so that a snapshot
+    * that must not see the page undoes every fragment, and the first
+    * one becomes the buffer's recovery LSN, so that a checkpoint
+    * does not let recovery skip it.
+    * Once the image is logged, the page's modifications can be redone,
+    * and so the page need not be forced to disk at commit.
+    * The caller holds the buffer's exclusive latch.
+    * A read-only transaction writes no record.
+    * @param buff the buffer containing the page
+    */
+   public void logPageImage(Buffer buff) {
+      if (readOnly)
+         return;
+      BlockId blk = buff.block();
+      Page p = buff.contents();
+      int size = tx.blockSize();
+      int max = PageImageRecord.maxFragment(size + Buffer.PAGE_LSN_SIZE, blk);
+      for (int offset=0; offset<size; offset+=max) {
+         byte[] image = new byte[Math.min(max, size - offset)];
+         Page fragment = new Page(image);
+         boolean empty = true;
+         for (int i=0; i<image.length; i+=Integer.BYTES) {
+            int val = p.getInt(offset + i);
+            fragment.setInt(i, val);
+            empty = empty && val == 0;
          }
+         if (empty)
+            continue;
+         lastLSN = PageImageRecord.writeToLog(lm, txnum, lastLSN, buff.pageLSN(), blk, offset, image);
+         buff.setModified(txnum, lastLSN);
       }
+      buff.setImageLogged();
    }
 
    /**
-    * Do a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * Rollback the transaction, by following the chain
+    * of its update records backwards from the most recent
+    * one until it reaches the transaction's START record,
+    * calling undo() for each record.
+    * Each record is read directly by its LSN, so the
+    * records of other transactions are never visited.
+    */
+   private void doRollback() {
+      int lsn = lastLSN;
+      while (lsn >= 0) {
+         LogRecord rec = LogRecord.createLogRecord(lm.read(lsn));
+         if (rec.op() == START)
+            return;
+         rec.undo(tx);
+         lsn = rec.prevLSN();
+      }
+   }
+
+   /**
+    * Do a complete database recovery, in three passes over
+    * the log records written since the redo LSN of the
+    * latest checkpoint, or over the whole log if there is none.
+    * <p>
+    * The analysis pass moves backwards through the records,
+    * determining which transactions committed, which rolled back,
+    * and which were still active (the losers).
+    * It also builds the dirty page table, which maps each
+    * modified block to the LSN of the first record that
+    * modified it (its recLSN).
+    * <p>
+    * The redo pass then moves forward from the smallest recLSN,
+    * repeating the modifications of committed and loser transactions.
+    * A modification is redone only if its LSN is greater than
+    * the page LSN of its block, that is, if it did not reach the disk.
+    * Rolled back transactions are skipped, since their undos
+    * were forced to disk before their ROLLBACK records were written;
+    * only their hints are redone, since a rollback can itself
+    * set hints, such as the free-space entries of its inserted blocks.
+    * <p>
+    * Finally, the undo pass moves backwards through the records,
+    * undoing each modification of a loser transaction.
+    * Blocks of temporary tables are ignored, since
+    * temporary tables do not survive a restart.
     */
    private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<>();
-      Iterator<byte[]> iter = lm.iterator();
+      Collection<Integer> committedTxs = new HashSet<>();
+      Collection<Integer> rolledBackTxs = new HashSet<>();
+      List<LogRecord> records = new ArrayList<>();
+      List<Integer> lsns = new ArrayList<>();
+      Map<BlockId,Integer> dirtyPages = new HashMap<>();
+
+      // analysis
+      int stopLSN = -1;
+      LogIterator iter = lm.iterator();
       while (iter.hasNext()) {
          byte[] bytes = iter.next();
+         if (iter.lsn() < stopLSN)
+            break;
          LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
-            finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
+         if (rec.op() == CHECKPOINT) {
+            if (stopLSN < 0)
+               stopLSN = ((CheckpointRecord) rec).redoLSN();
+            continue;
+         }
+         records.add(rec);
+         lsns.add(iter.lsn());
+         if (rec.op() == COMMIT)
+            committedTxs.add(rec.txNumber());
+         else if (rec.op() == ROLLBACK)
+            rolledBackTxs.add(rec.txNumber());
+         else if (isRecoverable(rec))
+            dirtyPages.put(rec.block(), iter.lsn()); // the earliest LSN wins
+      }
+      iter.close();
+      if (dirtyPages.isEmpty())
+         return;
+
+      // redo
+      int redoLSN = Collections.min(dirtyPages.values());
+      for (int i=records.size()-1; i>=0; i--) {
+         LogRecord rec = records.get(i);
+         int lsn = lsns.get(i);
+         if (lsn >= redoLSN && isRecoverable(rec)
+               && (rec.op() == SETHINT || !rolledBackTxs.contains(rec.txNumber())))
+            redo(rec, lsn);
+      }
+
+      // undo
+      for (LogRecord rec : records) {
+         int txnum = rec.txNumber();
+         if (isRecoverable(rec) && !committedTxs.contains(txnum)
+               && !rolledBackTxs.contains(txnum))
             rec.undo(tx);
       }
    }
+
+   /**
+    * Redoes the specified modification if its LSN
+    * is greater than the page LSN of its block,
+    * and then sets the page LSN to the record's LSN.
+    * @param rec the update record
+    * @param lsn the LSN of the record
+    */
+   private void redo(LogRecord rec, int lsn) {
+      Buffer buff = bm.pin(rec.block());
+      try {
+         if (buff.pageLSN() < lsn) {
+            rec.redo(tx);
+            buff.setModified(txnum, lsn);
+         }
+      }
+      finally {
+         bm.unpin(buff);
+      }
+   }
+
+   private boolean isRecoverable(LogRecord rec) {
+      BlockId blk = rec.block();
+      return blk != null && !FileMgr.isTempFile(blk.fileName());
+   }
 }
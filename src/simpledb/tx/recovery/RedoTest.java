@@ -0,0 +1,51 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Run this program twice.
+ * The first run commits a transaction without forcing its
+ * buffers and then stops, as if the system had crashed.
+ * The second run recovers, which must redo the committed changes.
+ */
+public class RedoTest {
+   private static SimpleDB db;
+   private static FileMgr fm;
+   private static BlockId blk = new BlockId("testfile", 0);
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("redotest", 400, 8);
+      fm = db.fileMgr();
+
+      if (fm.length("testfile") == 0) {
+         Transaction tx1 = db.newTx();
+         tx1.append("testfile");
+         tx1.pin(blk);
+         tx1.setInt(blk, 0, 0, false);
+         tx1.setString(blk, 20, "", false);
+         tx1.commit();
+         printValues("After initialization:");
+
+         Transaction tx2 = db.newTx();
+         tx2.pin(blk);
+         tx2.setInt(blk, 0, 123, true);
+         tx2.setString(blk, 20, "committed", true);
+         tx2.commit();
+         printValues("After commit (not yet on disk):");
+      }
+      else {
+         Transaction tx = db.newTx();
+         tx.recover();
+         printValues("After recovery:");
+      }
+   }
+
+   // Print the values that made it to disk.
+   private static void printValues(String msg) {
+      Page p = new Page(fm.blockSize());
+      fm.read(blk, p);
+      System.out.println(msg + " " + p.getInt(0) + " " + p.getString(20));
+   }
+}
@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
@@ -34,6 +34,42 @@ public class RollbackRecord implements LogRecord {
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Does nothing, because a rollback record
+    * contains no redo information.
+    */
+   public void redo(Transaction tx) {}
+
+   /**
+    * Returns null, because a rollback record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Returns -1, because a rollback record
+    * is not part of an undo chain.
+    */
+   public int prevLSN() {
+      return -1;
+   }
+
+   /**
+    * Returns -1, because a rollback record
+    * does not modify a page.
+    */
+   public int pagePrevLSN() {
+      return -1;
+   }
+
+   /**
+    * Does nothing, because a rollback record
+    * does not modify a page.
+    */
+   public void undo(Page p) {}
+
    public String toString() {
       return "<ROLLBACK " + txnum + ">";
    }
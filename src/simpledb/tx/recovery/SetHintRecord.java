@@ -0,0 +1,113 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * The SETHINT log record, which describes the modification
+ * of an integer that is only a hint, such as an entry
+ * of a free-space map.
+ * A hint is redone after a crash, but never undone:
+ * its modification belongs to no transaction, and so
+ * the record is not chained to the records of the
+ * transaction that wrote it, and its transaction id is -1.
+ */
+public class SetHintRecord implements LogRecord {
+   private int pagePrevLSN, offset, val;
+   private BlockId blk;
+
+   /**
+    * Create a new sethint log record.
+    * @param p the page containing the log values
+    */
+   public SetHintRecord(Page p) {
+      int gpos = Integer.BYTES;
+      pagePrevLSN = p.getInt(gpos);
+      int fpos = gpos + Integer.BYTES;
+      String filename = p.getString(fpos);
+      int bpos = fpos + Page.maxLength(filename.length());
+      int blknum = p.getInt(bpos);
+      blk = new BlockId(filename, blknum);
+      int opos = bpos + Integer.BYTES;
+      offset = p.getInt(opos);
+      int vpos = opos + Integer.BYTES;
+      val = p.getInt(vpos);
+   }
+
+   public int op() {
+      return SETHINT;
+   }
+
+   public int txNumber() {
+      return -1;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
+   public int prevLSN() {
+      return -1;
+   }
+
+   public int pagePrevLSN() {
+      return pagePrevLSN;
+   }
+
+   public String toString() {
+      return "<SETHINT " + blk + " " + offset + " " + val + ">";
+   }
+
+   /**
+    * Does nothing, because a hint is never undone.
+    */
+   public void undo(Transaction tx) {}
+
+   /**
+    * Does nothing, because a hint is never undone.
+    */
+   public void undo(Page p) {}
+
+   /**
+    * Replace the specified hint with the value
+    * saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setInt to reapply the value,
+    * and unpins the buffer.
+    * Records for temporary tables are ignored.
+    * @see simpledb.tx.recovery.LogRecord#redo(Transaction)
+    */
+   public void redo(Transaction tx) {
+      if (FileMgr.isTempFile(blk.fileName()))
+         return; // temporary tables do not survive a restart
+      tx.pin(blk);
+      tx.setInt(blk, offset, val, false); // don't log the redo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * A static method to write a sethint record to the log.
+    * This log record contains the SETHINT operator,
+    * followed by the previous page LSN of the block,
+    * the filename, number, and offset of the modified block,
+    * and the new integer value at that offset.
+    * @return the LSN of the last log value
+    */
+   public static int writeToLog(LogMgr lm, int pagePrevLSN, BlockId blk, int offset, int val) {
+      int gpos = Integer.BYTES;
+      int fpos = gpos + Integer.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int opos = bpos + Integer.BYTES;
+      int vpos = opos + Integer.BYTES;
+      byte[] rec = new byte[vpos + Integer.BYTES];
+      Page p = new Page(rec);
+      p.setInt(0, SETHINT);
+      p.setInt(gpos, pagePrevLSN);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(opos, offset);
+      p.setInt(vpos, val);
+      return lm.append(rec);
+   }
+}
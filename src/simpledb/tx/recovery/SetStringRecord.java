@@ -5,8 +5,8 @@ import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 public class SetStringRecord implements LogRecord {
-   private int txnum, offset;
-   private String val;
+   private int txnum, prevLSN, pagePrevLSN, offset;
+   private String oldval, newval;
    private BlockId blk;
 
    /**
@@ -16,7 +16,11 @@ public class SetStringRecord implements LogRecord {
    public SetStringRecord(Page p) {
       int tpos = Integer.BYTES;
       txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      prevLSN = p.getInt(ppos);
+      int gpos = ppos + Integer.BYTES;
+      pagePrevLSN = p.getInt(gpos);
+      int fpos = gpos + Integer.BYTES;
       String filename = p.getString(fpos);
       int bpos = fpos + Page.maxLength(filename.length());
       int blknum = p.getInt(bpos);
@@ -24,7 +28,9 @@ public class SetStringRecord implements LogRecord {
       int opos = bpos + Integer.BYTES;
       offset = p.getInt(opos);
       int vpos = opos + Integer.BYTES;      
-      val = p.getString(vpos);
+      oldval = p.getString(vpos);
+      int npos = vpos + Page.maxLength(oldval.length());
+      newval = p.getString(npos);
    }
 
    public int op() {
@@ -35,8 +41,20 @@ public class SetStringRecord implements LogRecord {
       return txnum;
    }
 
+   public BlockId block() {
+      return blk;
+   }
+
+   public int prevLSN() {
+      return prevLSN;
+   }
+
+   public int pagePrevLSN() {
+      return pagePrevLSN;
+   }
+
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETSTRING " + txnum + " " + prevLSN + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
@@ -44,37 +62,74 @@ public class SetStringRecord implements LogRecord {
     * The method pins a buffer to the specified block,
     * calls setInt to restore the saved value,
     * and unpins the buffer.
+    * Records for temporary tables are ignored.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
+      if (FileMgr.isTempFile(blk.fileName()))
+         return; // temporary tables do not survive a restart
+      tx.pin(blk);
+      tx.setString(blk, offset, oldval, false); // don't log the undo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * Replace the specified data value in the page with the
+    * value saved in the log record, without logging or locking.
+    * @see simpledb.tx.recovery.LogRecord#undo(Page)
+    */
+   public void undo(Page p) {
+      p.setString(offset, oldval);
+   }
+
+   /**
+    * Replace the specified data value with the new value
+    * saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setString to reapply the new value,
+    * and unpins the buffer.
+    * Records for temporary tables are ignored.
+    * @see simpledb.tx.recovery.LogRecord#redo(Transaction)
+    */
+   public void redo(Transaction tx) {
+      if (FileMgr.isTempFile(blk.fileName()))
+         return; // temporary tables do not survive a restart
       tx.pin(blk);
-      tx.setString(blk, offset, val, false); // don't log the undo!
+      tx.setString(blk, offset, newval, false); // don't log the redo!
       tx.unpin(blk);
    }
 
    /**
     * A static method to write a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous update (or START) record,
+    * the previous page LSN of the block, the filename, number,
     * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * and new string values at that offset.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
+   public static int writeToLog(LogMgr lm, int txnum, int prevLSN, int pagePrevLSN, BlockId blk, int offset, String oldval, String newval) {
       int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
+      int ppos = tpos + Integer.BYTES;
+      int gpos = ppos + Integer.BYTES;
+      int fpos = gpos + Integer.BYTES;
       int bpos = fpos + Page.maxLength(blk.fileName().length());
       int opos = bpos + Integer.BYTES;
       int vpos = opos + Integer.BYTES;
-      int reclen = vpos + Page.maxLength(val.length());
+      int npos = vpos + Page.maxLength(oldval.length());
+      int reclen = npos + Page.maxLength(newval.length());
       byte[] rec = new byte[reclen];
       Page p = new Page(rec);
       p.setInt(0, SETSTRING);
       p.setInt(tpos, txnum);
+      p.setInt(ppos, prevLSN);
+      p.setInt(gpos, pagePrevLSN);
       p.setString(fpos, blk.fileName());
       p.setInt(bpos, blk.number());
       p.setInt(opos, offset);
-      p.setString(vpos, val);
+      p.setString(vpos, oldval);
+      p.setString(npos, newval);
       return lm.append(rec);
    }
 }
\ No newline at end of file
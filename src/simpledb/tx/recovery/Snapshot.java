@@ -0,0 +1,108 @@
+package simpledb.tx.recovery;
+
+import java.util.*;
+import simpledb.buffer.Buffer;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+/**
+ * A transaction-consistent view of the database,
+ * as of the moment the snapshot was taken.
+ * The snapshot sees exactly the modifications of the
+ * transactions that had finished by then.
+ * <p>
+ * Versions are not stored. Instead, the version of a block
+ * is reconstructed from the current page by following the
+ * block's chain of update records backwards from its page LSN
+ * to the oldest LSN of the snapshot,
+ * undoing each modification that the snapshot must not see.
+ * A visible modification does not end the walk, because
+ * transactions that lock individual records modify the same block
+ * concurrently, so that an invisible modification can precede
+ * a visible one in the chain. Exclusive locks are held until
+ * a transaction finishes, so the two never modify the same bytes,
+ * and undoing the invisible modifications alone yields the version.
+ * Reconstructed versions are cached, because a scan
+ * reads each block many times in a row.
+ */
+public class Snapshot {
+   private static final int MAX_CACHED = 32;
+   private LogMgr lm;
+   private int snapshotLSN;
+   private Set<Integer> activeTxs;
+   private int oldestLSN;
+   private Map<BlockId,Page> versions = new LinkedHashMap<>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<BlockId,Page> eldest) {
+         return size() > MAX_CACHED;
+      }
+   };
+
+   /**
+    * Creates a snapshot from the specified active-transaction
+    * table and the LSN of the latest log record.
+    * The two must have been read atomically.
+    * @param lm the log manager
+    * @param att the active-transaction table
+    * @param snapshotLSN the LSN of the latest log record
+    */
+   Snapshot(LogMgr lm, Map<Integer,Integer> att, int snapshotLSN) {
+      this.lm = lm;
+      this.snapshotLSN = snapshotLSN;
+      activeTxs = new HashSet<>(att.keySet());
+      oldestLSN = snapshotLSN;
+      for (int lsn : att.values())
+         oldestLSN = Math.min(oldestLSN, lsn);
+   }
+
+   /**
+    * Returns the earliest LSN that the snapshot may need to read:
+    * every record older than this one is visible to it.
+    * The log must be retained from this LSN on,
+    * for as long as the snapshot is in use.
+    * @return the earliest LSN needed by the snapshot
+    */
+   public int oldestLSN() {
+      return oldestLSN;
+   }
+
+   /**
+    * Returns the version of the buffer's block
+    * that belongs to the snapshot.
+    * The returned page must not be modified.
+    * @param buff a buffer pinned to the block
+    * @return the snapshot's version of the block
+    */
+   public Page version(Buffer buff) {
+      BlockId blk = buff.block();
+      Page p = versions.get(blk);
+      if (p == null) {
+         p = reconstruct(buff);
+         versions.put(blk, p);
+      }
+      return p;
+   }
+
+   private Page reconstruct(Buffer buff) {
+      Page p;
+      int lsn;
+      buff.sLatch();
+      try {
+         p = buff.copyContents();
+         lsn = buff.pageLSN();
+      }
+      finally {
+         buff.sUnlatch();
+      }
+      while (lsn > 0 && lsn >= oldestLSN) {
+         LogRecord rec = LogRecord.createLogRecord(lm.read(lsn));
+         if (!isVisible(rec, lsn))
+            rec.undo(p);
+         lsn = rec.pagePrevLSN();
+      }
+      return p;
+   }
+
+   private boolean isVisible(LogRecord rec, int lsn) {
+      return lsn <= snapshotLSN && !activeTxs.contains(rec.txNumber());
+   }
+}
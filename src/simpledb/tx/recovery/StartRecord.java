@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
@@ -29,6 +29,42 @@ public class StartRecord implements LogRecord {
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
+
+   /**
+    * Does nothing, because a start record
+    * contains no redo information.
+    */
+   public void redo(Transaction tx) {}
+
+   /**
+    * Returns null, because a start record
+    * does not modify a block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Returns -1, because a start record
+    * is not part of an undo chain.
+    */
+   public int prevLSN() {
+      return -1;
+   }
+
+   /**
+    * Returns -1, because a start record
+    * does not modify a page.
+    */
+   public int pagePrevLSN() {
+      return -1;
+   }
+
+   /**
+    * Does nothing, because a start record
+    * does not modify a page.
+    */
+   public void undo(Page p) {}
    
    public String toString() {
       return "<START " + txnum + ">";